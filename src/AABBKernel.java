@@ -0,0 +1,157 @@
+/**
+ * AABBKernel.java
+ *
+ * Tests one query box against a contiguous run of boxes stored in structure-of-arrays form, which is the inner
+ * loop of a sort-and-sweep Broadphase (see SortedSweep). This class is the plain scalar loop, and works on
+ * any JVM.
+ *
+ * create() picks the fastest kernel this JVM can run: VectorAABBKernel, which tests 4, 8 or 16 boxes per
+ * instruction with the JDK's (incubating) Vector API, if it was compiled and the JVM was started with
+ * --add-modules jdk.incubator.vector; otherwise this one. VectorAABBKernel is only ever loaded by name, so
+ * the game builds and runs without it.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Random;
+
+public class AABBKernel{
+
+	//the optional SIMD kernel, loaded by name so that nothing else has to compile against the Vector API
+	private static final String VECTOR_KERNEL = "VectorAABBKernel";
+
+	//main() times the last of this many rounds, so the JIT has compiled both kernels by then
+	private static final int BENCHMARK_ROUNDS = 5;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	protected AABBKernel(){}
+
+	/** Returns the scalar kernel, which runs anywhere */
+	public static AABBKernel scalar(){
+		return new AABBKernel();
+	}
+
+	/** Returns the SIMD kernel if this JVM can run it, or the scalar kernel otherwise */
+	public static AABBKernel create(){
+		try {
+			return (AABBKernel)Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+		} catch (Exception e){
+			return scalar(); //not compiled in
+		} catch (LinkageError e){
+			return scalar(); //compiled in, but the jdk.incubator.vector module is not loaded
+		}
+	}
+
+	//--------------
+	//--| Kernel |--
+	//--------------
+
+	/**
+	 * Finds every box i in [from, to) which overlaps the query box (touching counts), in increasing order.
+	 *
+	 * @param out receives the index of each box found; needs room for (to - from) indices
+	 * @return the number of indices written to out
+	 */
+	public int overlapping(
+		float[] min_x, float[] min_y, float[] max_x, float[] max_y, int from, int to,
+		float q_min_x, float q_min_y, float q_max_x, float q_max_y, int[] out
+		){
+		return overlappingScalar(min_x, min_y, max_x, max_y, from, to, q_min_x, q_min_y, q_max_x, q_max_y, out, 0);
+	}
+
+	/** The scalar loop; appends to out from index n, and returns the new count. Also finishes a SIMD kernel's tail */
+	protected final int overlappingScalar(
+		float[] min_x, float[] min_y, float[] max_x, float[] max_y, int from, int to,
+		float q_min_x, float q_min_y, float q_max_x, float q_max_y, int[] out, int n
+		){
+		for (int i = from; i < to; i++){
+			if (min_x[i] <= q_max_x && q_min_x <= max_x[i] && min_y[i] <= q_max_y && q_min_y <= max_y[i]){
+				out[n++] = i;
+			}
+		}
+		return n;
+	}
+
+	/** Returns a short description of this kernel, e.g. for benchmarks */
+	public String getName(){ return "scalar"; }
+
+	/** Returns how many boxes this kernel tests per instruction */
+	public int getLanes(){ return 1; }
+
+	//--------------------------
+	//--| Test/Debug Methods |--
+	//--------------------------
+
+	/**
+	 * Sandbox driver: benchmarks the best available kernel against the scalar one, on its own and inside a
+	 * SortedSweep, at 1k to 100k bodies, and checks that both find the same boxes and pairs. Start the JVM with
+	 * --add-modules jdk.incubator.vector (with VectorAABBKernel compiled) to benchmark the SIMD kernel.
+	 */
+	public static void main(String[] args){
+		AABBKernel[] kernels = { scalar(), create() };
+		System.out.println( "best kernel: " + kernels[1].getName() + " (" + kernels[1].getLanes() + " lanes)" );
+
+		for (int n = 1000; n <= 100000; n *= 10){
+			//boxes 8-32 units wide, in a world sized for about the same density at every n
+			Random rand = new Random(n);
+			float world = (float)Math.sqrt(n) * 30f;
+			float[] min_x = new float[n], min_y = new float[n], max_x = new float[n], max_y = new float[n];
+			AABBSnapshot snapshot = new AABBSnapshot(n);
+			for (int i = 0; i < n; i++){
+				min_x[i] = rand.nextFloat() * world;
+				min_y[i] = rand.nextFloat() * world;
+				max_x[i] = min_x[i] + 8f + rand.nextFloat() * 24f;
+				max_y[i] = min_y[i] + 8f + rand.nextFloat() * 24f;
+				snapshot.add(i, new org.newdawn.slick.geom.Rectangle(min_x[i], min_y[i], max_x[i] - min_x[i], max_y[i] - min_y[i]));
+			}
+
+			//the kernel alone: one query box against every box
+			int[] out = new int[n];
+			long[] found = new long[2];
+			long[] kernel_ns = new long[2];
+			for (int k = 0; k < 2; k++){
+				int queries = 2000000 / n + 1;
+				for (int round = 0; round < BENCHMARK_ROUNDS; round++){
+					found[k] = 0;
+					long start = System.nanoTime();
+					for (int q = 0; q < queries; q++){
+						float x = (q * 37 % 100) / 100f * world, y = (q * 61 % 100) / 100f * world;
+						found[k] += kernels[k].overlapping(min_x, min_y, max_x, max_y, 0, n, x, y, x + 200f, y + 200f, out);
+					}
+					kernel_ns[k] = (System.nanoTime() - start) / queries;
+				}
+			}
+
+			//inside a broadphase
+			long[] pairs_found = new long[2];
+			long[] sweep_ns = new long[2];
+			for (int k = 0; k < 2; k++){
+				SortedSweep sweep = new SortedSweep(kernels[k]);
+				for (int i = 0; i < n; i++){
+					sweep.add(i, snapshot);
+				}
+				PairList pairs = new PairList();
+				int frames = 10;
+				for (int round = 0; round < BENCHMARK_ROUNDS; round++){
+					long start = System.nanoTime();
+					for (int f = 0; f < frames; f++){
+						pairs.clear();
+						sweep.findPairs(snapshot, pairs);
+					}
+					sweep_ns[k] = (System.nanoTime() - start) / frames;
+				}
+				pairs_found[k] = pairs.size();
+			}
+
+			System.out.println(
+				n + " bodies: query " + kernel_ns[0]/1000 + " us scalar, " + kernel_ns[1]/1000 + " us " + kernels[1].getName()
+				+ "; findPairs " + sweep_ns[0]/1000 + " us scalar, " + sweep_ns[1]/1000 + " us " + kernels[1].getName()
+				+ "; same results: " + (found[0] == found[1] && pairs_found[0] == pairs_found[1])
+				);
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+/**
+ * AABBSnapshot.java
+ *
+ * The bounding boxes of every Shape in a CollisionLayer, in structure-of-arrays form: box id is
+ * (min_x[id], min_y[id]) - (max_x[id], max_y[id]). A CollisionLayer refreshes the snapshot once at the start
+ * of each notifyCollisions(), so Slick's getMinX()/getMaxX()/etc. (which walk a polygon's points) run once per
+ * Shape per frame; after that, sorting, sweeping and pair tests read only these arrays.
+ *
+ * Each id also carries collision-filter bits (see CollisionLayer.CATEGORY_*) and layer-membership bits (see
+ * LayerView); every Broadphase checks canCollide() before reporting a pair (all but SweepAndPrune, which tracks
+ * every overlap, before overlaps() too), so a filtered pair, or a pair with no layer in common, never reaches
+ * the narrowphase.
+ *
+ * The arrays are public for speed. Only the owning CollisionLayer writes to them.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+import org.newdawn.slick.geom.Shape;
+
+public class AABBSnapshot{
+
+	public float[] min_x;
+	public float[] min_y;
+	public float[] max_x;
+	public float[] max_y;
+
+	//collision filtering; a and b may collide if each one's category is in the other's mask
+	public int[] categories;
+	public int[] masks;
+	public int[] layers; //a and b are only paired if they share a layer
+
+	//dense list of the ids currently in use, and each id's position in it
+	private int[] ids;
+	private int[] index_of;
+	private int count;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public AABBSnapshot(){
+		this(64);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity the number of ids to make room for before the arrays have to grow
+	 */
+	public AABBSnapshot(int capacity){
+		capacity = Math.max(capacity, 1);
+		min_x = new float[capacity];
+		min_y = new float[capacity];
+		max_x = new float[capacity];
+		max_y = new float[capacity];
+		categories = new int[capacity];
+		masks = new int[capacity];
+		layers = new int[capacity];
+		ids = new int[capacity];
+		index_of = new int[capacity];
+		count = 0;
+	}
+
+	//-------------------
+	//--| Id Tracking |--
+	//-------------------
+
+	/** Starts tracking id, and records the bounding box of s under it; id collides with everything */
+	public void add(int id, Shape s){
+		add(id, s, CollisionLayer.CATEGORY_DEFAULT, CollisionLayer.MASK_ALL);
+	}
+
+	/** Starts tracking id, and records the bounding box and collision-filter bits of s under it, in the default layer */
+	public void add(int id, Shape s, int category, int mask){
+		add(id, s, category, mask, CollisionLayer.LAYER_DEFAULT);
+	}
+
+	/** Starts tracking id, and records the bounding box, collision-filter bits and layer-membership bits of s under it */
+	public void add(int id, Shape s, int category, int mask, int layers){
+		if (id >= index_of.length){
+			int capacity = Math.max(index_of.length * 2, id + 1);
+			min_x = Arrays.copyOf(min_x, capacity);
+			min_y = Arrays.copyOf(min_y, capacity);
+			max_x = Arrays.copyOf(max_x, capacity);
+			max_y = Arrays.copyOf(max_y, capacity);
+			categories = Arrays.copyOf(categories, capacity);
+			masks = Arrays.copyOf(masks, capacity);
+			this.layers = Arrays.copyOf(this.layers, capacity);
+			index_of = Arrays.copyOf(index_of, capacity);
+		}
+		if (count == ids.length){
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		}
+		index_of[id] = count;
+		ids[count++] = id;
+		categories[id] = category;
+		masks[id] = mask;
+		this.layers[id] = layers;
+		set(id, s);
+	}
+
+	/** Stops tracking id; the last id in the dense list takes its place */
+	public void remove(int id){
+		int i = index_of[id];
+		int last = ids[--count];
+		ids[i] = last;
+		index_of[last] = i;
+	}
+
+	/** Records the current bounding box of s under id */
+	public void set(int id, Shape s){
+		min_x[id] = s.getMinX();
+		min_y[id] = s.getMinY();
+		max_x[id] = s.getMaxX();
+		max_y[id] = s.getMaxY();
+	}
+
+	/** Grows id's box to also cover where it was before moving by (dx, dy) */
+	public void sweep(int id, float dx, float dy){
+		if (dx > 0f){ min_x[id] -= dx; } else { max_x[id] -= dx; }
+		if (dy > 0f){ min_y[id] -= dy; } else { max_y[id] -= dy; }
+	}
+
+	//----------------------
+	//--| Access Methods |--
+	//----------------------
+
+	/** Returns the number of ids currently in use */
+	public int getCount(){ return count; }
+
+	/** Returns the i'th id currently in use, for 0 <= i < getCount(); the order changes on remove() */
+	public int getId(int i){ return ids[i]; }
+
+	/** Returns one more than the largest id the arrays can currently hold */
+	public int getCapacity(){ return min_x.length; }
+
+	/** Returns true if the collision filters of a and b accept each other, and they share a layer */
+	public boolean canCollide(int a, int b){
+		return (categories[a] & masks[b]) != 0 && (categories[b] & masks[a]) != 0 && (layers[a] & layers[b]) != 0;
+	}
+
+	/** Returns true if the boxes of a and b overlap (touching counts) */
+	public boolean overlaps(int a, int b){
+		return min_x[a] <= max_x[b] && min_x[b] <= max_x[a]
+			&& min_y[a] <= max_y[b] && min_y[b] <= max_y[a];
+	}
+
+}
@@ -6,8 +6,10 @@ import org.newdawn.slick.geom.*;
 import org.newdawn.slick.SlickException;
 
 public class AIManager {
-	private Collection<AITest> ships;
+	private ArrayList<AITest> ships;
+	private ArrayList<AITest> toDestroy; // reused every update
 	private CollisionLayer cl;
+	private PhysicsWorld world; // where ships' physical state is kept; null for each ship to keep its own
 	private int interval;
 	private PlayerShip target;
 	
@@ -15,15 +17,28 @@ public class AIManager {
 	private static final int MAX_SHIPS = 4;
 	private static final int SPAWN_TIME = 1000; // 1s or 1000ms
 	private static final float MAX_DIST_SQ  = 600f * 600f; // max distance before AIships get wrecked
+	private static final float SPAWN_CLEARANCE = 30f; // nothing may be this close to a new ship
+	
+	private Collider[] nearby = new Collider[1]; // spawn-clearance query buffer
 	
 	public AIManager(CollisionLayer cl, PlayerShip target) {
+		this(cl, target, null);
+	}
+	
+	public AIManager(CollisionLayer cl, PlayerShip target, PhysicsWorld world) {
 		this.cl = cl;
+		this.world = world;
 		this.ships = new ArrayList<>();
+		this.toDestroy = new ArrayList<>();
 		this.interval = 0;
 		this.target = target;
 	}
 	
-	public void update(GameContainer gc, int delta, Vector2f pos) {
+	public void update(GameContainer gc, int delta, float px, float py) {
+		update(delta, px, py);
+	}
+	
+	public void update(int delta, float px, float py) {
 		// spawning behavior
 		interval += delta;
 		if (interval >= SPAWN_TIME) {
@@ -33,47 +48,59 @@ public class AIManager {
 			interval = 0;
 		}
 		// destruction checks
-		ArrayList<AITest> toDestroy = new ArrayList<>();
-		for (AITest s : ships) {
-			s.update(gc, delta);
-			Vector2f apos = s.getPhys().getPosition();
-			if (s.getHP() < 1 || pos.distanceSquared(apos) > MAX_DIST_SQ)
+		for (int k = 0; k < ships.size(); k++) {
+			AITest s = ships.get(k);
+			s.update(delta);
+			float dx = s.getPhys().getX() - px, dy = s.getPhys().getY() - py;
+			if (s.getHP() < 1 || dx * dx + dy * dy > MAX_DIST_SQ)
 				toDestroy.add(s);
 		}
 		// actually destroy ships
-		for (AITest s : toDestroy) {
+		for (int k = 0; k < toDestroy.size(); k++) {
+			AITest s = toDestroy.get(k);
 			ships.remove(s);
 			s.destroy();
 		}
+		toDestroy.clear();
 	}
 	
 	public void render(GameContainer gc, Graphics g) throws SlickException {
-		for (AITest s : ships) {
-			s.render(gc, g);
+		for (int k = 0; k < ships.size(); k++) {
+			ships.get(k).render(gc, g);
 		}
 	}
 	
 	private void addShip() {
-		float x = 0f, y = 0f;
-		switch (rand.nextInt(4)) {
-			case 0:
-				x = 360f; y = 260f; // SE corner
-				break;
-			case 1:
-				x = -360f; y = 260f; // SW corner
-				break;
-			case 2:
-				x = 360f; y = -260f; // NE corner
-				break;
-			case 3:
-				x = -360f; y = -260f;
-				break;
-		}
 		float px = target.getPhys().getGImg().getMidX();
 		float py = target.getPhys().getGImg().getMidY();
-		AITest s = AITest.makeAI(x + px, y + py, target);
-		ships.add(s);
-		s.getPhys().getCImg().addTo(cl);
+		
+		// start at a random corner, and take the first one which is clear
+		int first = rand.nextInt(4);
+		for (int k = 0; k < 4; k++) {
+			float x = 0f, y = 0f;
+			switch ((first + k) % 4) {
+				case 0:
+					x = 360f; y = 260f; // SE corner
+					break;
+				case 1:
+					x = -360f; y = 260f; // SW corner
+					break;
+				case 2:
+					x = 360f; y = -260f; // NE corner
+					break;
+				case 3:
+					x = -360f; y = -260f;
+					break;
+			}
+			if (cl.queryRadius(x + px, y + py, SPAWN_CLEARANCE, CollisionLayer.MASK_ALL, nearby) == 0) {
+				AITest s = AITest.makeAI(x + px, y + py, target, world);
+				s.setObstacles(cl);
+				ships.add(s);
+				s.getPhys().getCImg().addTo(cl);
+				return;
+			}
+		}
+		// every corner is blocked; try again next spawn interval
 	}
 	
 	public int count() { return ships.size(); }
@@ -11,6 +11,14 @@ public class AIMark2 extends StellarObject{
 	private static final float THRUSTER_ACCELERATION = .05f; //thruster acceleration in px/frame^2
 	private static final float ROTATION = .05f; //rotational displacement in rad/frame
 	private StellarObject target;
+
+	//scratch for steering, so that update() allocates nothing
+	private Vector2f own_vel;
+	private Vector2f lead_vel;
+	private Vector2f seek_vel;
+	private Vector2f wander_vel;
+	private static Random rand = new Random();
+
 	//------------------
 	//--| 'structors |--
 	//------------------
@@ -18,6 +26,10 @@ public class AIMark2 extends StellarObject{
 	private AIMark2(Physics phys, StellarObject target){
 		super(phys);
 		this.target = target;
+		this.own_vel = new Vector2f();
+		this.lead_vel = new Vector2f();
+		this.seek_vel = new Vector2f();
+		this.wander_vel = new Vector2f();
 		phys.getCImg().setColor(Color.red);
 	}
 
@@ -26,11 +38,12 @@ public class AIMark2 extends StellarObject{
 		Vector2f centroid = new Vector2f(x, y);
 		//make cimg
 		_AIMark2Collider ac = new _AIMark2Collider();
-		Polygon pol = new Polygon(new float[]{
-			x+7f, y   ,
-			x-5f, y+5f,
-			x-5f, y-5f	});
+		Polygon pol = new Polygon(new float[]{ //local space: about the centroid, facing +x
+			 7f,  0f,
+			-5f,  5f,
+			-5f, -5f	});
 		CollisionImage cimg = new CollisionImage(pol, ac);
+		cimg.setFilter(CollisionLayer.CATEGORY_ENEMY, CollisionLayer.MASK_ALL);
 		GraphicalImage gimg = new GraphicalImage(pol, new GradientFill(0.0f, 0.0f, Color.red, 1.0f, 1.0f, Color.red));
 		//make the AIMark2
 		AIMark2 ai = new AIMark2(new _AIMark2Physics(centroid, cimg, gimg), target);
@@ -45,25 +58,22 @@ public class AIMark2 extends StellarObject{
 	//--| Updates |--
 	//---------------
 
-	/** gets the vector in the direction of the target */
-	private Vector2f getVectorToTarget(){
-		Vector2f target_pos = target.getPhys().getPosition();
-		Vector2f current_pos = getPhys().getPosition();
-		// using x & y explicitly is ignoring the idiotproofing built into Vector2f
-		return target_pos.sub(current_pos);
+	/** gets the vector in the direction of the target, into out */
+	private Vector2f getVectorToTarget(Vector2f out){
+		return out.set(target.getPhys().getX() - getPhys().getX(), target.getPhys().getY() - getPhys().getY());
 	}
 
+	/** Returns the velocity to seek the target at; the Vector2f is this AI's own, overwritten by the next call */
 	Vector2f seek(){
 		/* AI velocity and speed */
-		Vector2f ai_vel = getPhys().getVelocity();
-		float ai_speed	= ai_vel.length(); // ai_speed >= 0
+		float ai_speed	= getPhys().getSpeed(); // ai_speed >= 0
 
 		/* target's velocity and speed */
-		Vector2f target_vel = target.getPhys().getVelocity();
+		Vector2f target_vel = target.getPhys().getVelocity(lead_vel);
 		float target_speed = target_vel.length();
 
 		/* vector to target */
-		Vector2f delta_pos = getVectorToTarget();	// vector difference of positions
+		Vector2f delta_pos = getVectorToTarget(seek_vel);	// vector difference of positions
 		float dist_to_target = delta_pos.length();	// dist to target
 
 		/* lead target by player speed * approximate time arrival time to target */
@@ -80,19 +90,19 @@ public class AIMark2 extends StellarObject{
 
 	}
 
+	/** Returns a random velocity of up to magnitude; the Vector2f is this AI's own, overwritten by the next call */
 	Vector2f wander(float magnitude){
-		Random rand = new Random();
 		float rx = (rand.nextFloat()*2-1);
 		float ry = (rand.nextFloat()*2-1);
-		return new Vector2f(rx,ry).normalise().scale(rand.nextFloat()*magnitude);
+		return wander_vel.set(rx,ry).normalise().scale(rand.nextFloat()*magnitude);
 	}
 
 	/** Performs framewise updates; should be propegated from the base Slick2D game object */
 	@Override
-	public void update(GameContainer gc, int time_passed_ms){
+	public void update(int time_passed_ms){
 
 		/* AI velocity and speed */
-		Vector2f ai_vel = getPhys().getVelocity();
+		Vector2f ai_vel = getPhys().getVelocity(own_vel);
 		float ai_speed	= ai_vel.length(); // ai_speed
 
 		/* we can set target velocity to whatever we want
@@ -127,14 +137,14 @@ public class AIMark2 extends StellarObject{
 
 		// if angles are different enough turn
 		if (rot_mag > 0.05f){
-			getPhys().rotate(ROTATION*rot_sign);
+			getPhys().rotate(ROTATION*rot_sign*getPhys().getFramesPerTick());
 		}
 
 		// if target velocity is different enough to warrant thrusting thrust.
 		if ((target_vel.length() > 0.05f) && (rot_mag < 0.8f*(float)Math.PI ) ){
-			getPhys().accelerateAligned(0f, THRUSTER_ACCELERATION);
+			getPhys().accelerateAligned(0f, THRUSTER_ACCELERATION * getPhys().getFramesPerTick());
 		}
-		super.update(gc, time_passed_ms);
+		super.update(time_passed_ms);
 	}
 
 	/** Returns theta as an angle in the range [0,2π] */
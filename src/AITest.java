@@ -11,8 +11,20 @@ public class AITest extends StellarObject{
 	
 	private static final float THRUSTER_ACCELERATION = .05f; //thruster acceleration in px/frame^2
 	private static final float ROTATION = .05f; //rotational displacement in rad/frame
+	private static final float LOOKAHEAD = 120f; //how far ahead to look for asteroids, in px
 	private StellarObject target;
 
+	//asteroids to steer around, if set (see setObstacles())
+	private CollisionLayer obstacles;
+	private CollisionLayer.RayHit obstacle_hit;
+
+	//scratch for steering, so that update() allocates nothing
+	private Vector2f own_vel;
+	private Vector2f lead_vel;
+	private Vector2f seek_vel;
+	private Vector2f wander_vel;
+	private static Random rand = new Random();
+
 	//------------------
 	//--| 'structors |--
 	//------------------
@@ -20,22 +32,34 @@ public class AITest extends StellarObject{
 	private AITest(Physics phys, StellarObject target){
 		super(phys);
 		this.target = target;
+		this.obstacles = null;
+		this.obstacle_hit = new CollisionLayer.RayHit();
+		this.own_vel = new Vector2f();
+		this.lead_vel = new Vector2f();
+		this.seek_vel = new Vector2f();
+		this.wander_vel = new Vector2f();
 		phys.getCImg().setColor(Color.red);
 	}
 
 	public static AITest makeAI(float x, float y, StellarObject target){
+		return makeAI(x, y, target, null);
+	}
+
+	/** As makeAI(x, y, target), keeping the AITest's physical state in world (see PhysicsWorld) */
+	public static AITest makeAI(float x, float y, StellarObject target, PhysicsWorld world){
 		//make centroid
 		Vector2f centroid = new Vector2f(x, y);
 		//make cimg
 		_AITestCollider ac = new _AITestCollider();
-		Polygon pol = new Polygon(new float[]{
-			x+7f, y   ,
-			x-5f, y+5f,
-			x-5f, y-5f	});
+		Polygon pol = new Polygon(new float[]{ //local space: about the centroid, facing +x
+			 7f,  0f,
+			-5f,  5f,
+			-5f, -5f	});
 		CollisionImage cimg = new CollisionImage(pol, ac);
+		cimg.setFilter(CollisionLayer.CATEGORY_ENEMY, CollisionLayer.MASK_ALL);
 		GraphicalImage gimg = new GraphicalImage(pol, new GradientFill(0.0f, 0.0f, Color.red, 1.0f, 1.0f, Color.red));
 		//make the AITest
-		AITest ai = new AITest(new _AITestPhysics(centroid, cimg, gimg), target);
+		AITest ai = new AITest(new _AITestPhysics(centroid, cimg, gimg, world), target);
 
 		//close circular references
 		ac.ai = ai;
@@ -43,29 +67,29 @@ public class AITest extends StellarObject{
 		return ai;
 	}
 
+	/** Makes this steer around asteroids in cl; pass null to stop */
+	public void setObstacles(CollisionLayer cl){ this.obstacles = cl; }
+
 	//---------------
 	//--| Updates |--
 	//---------------
 
-	/** gets the vector in the direction of the target */
-	private Vector2f getVectorToTarget(){
-		Vector2f target_pos = target.getPhys().getPosition();
-		Vector2f current_pos = getPhys().getPosition();
-		// using x & y explicitly is ignoring the idiotproofing built into Vector2f
-		return target_pos.sub(current_pos);
+	/** gets the vector in the direction of the target, into out */
+	private Vector2f getVectorToTarget(Vector2f out){
+		return out.set(target.getPhys().getX() - getPhys().getX(), target.getPhys().getY() - getPhys().getY());
 	}
 
+	/** Returns the velocity to seek the target at; the Vector2f is this AI's own, overwritten by the next call */
 	Vector2f seek(){
 		/* AI velocity and speed */
-		Vector2f ai_vel = getPhys().getVelocity();
-		float ai_speed	= ai_vel.length(); // ai_speed >= 0
+		float ai_speed	= getPhys().getSpeed(); // ai_speed >= 0
 
 		/* target's velocity and speed */
-		Vector2f target_vel = target.getPhys().getVelocity();
+		Vector2f target_vel = target.getPhys().getVelocity(lead_vel);
 		float target_speed = target_vel.length();
 
 		/* vector to target */
-		Vector2f delta_pos = getVectorToTarget();	// vector difference of positions
+		Vector2f delta_pos = getVectorToTarget(seek_vel);	// vector difference of positions
 		float dist_to_target = delta_pos.length();	// dist to target
 
 		/* lead target by player speed * approximate time arrival time to target */
@@ -76,25 +100,42 @@ public class AITest extends StellarObject{
 
 		float speed_cap = Math.max(target_speed+1, 3)  ; // speed cap calculation
 
+		/* unit heading, taken before normalise().scale() rescales delta_pos in place */
+		float lead_dist = delta_pos.length();
+		float dir_x = lead_dist > 0 ? delta_pos.x / lead_dist : 0;
+		float dir_y = lead_dist > 0 ? delta_pos.y / lead_dist : 0;
+
 		target_vel = delta_pos.normalise().scale(speed_cap);
 
+		/* sidestep the first asteroid in the way, harder the closer it is */
+		if (obstacles != null) {
+			float pos_x = getPhys().getX(), pos_y = getPhys().getY();
+			float ahead_x = dir_x * LOOKAHEAD, ahead_y = dir_y * LOOKAHEAD;
+			if (obstacles.raycast(pos_x, pos_y, pos_x + ahead_x, pos_y + ahead_y, CollisionLayer.CATEGORY_DEBRIS, obstacle_hit)) {
+				float push = (1f - obstacle_hit.fraction) * speed_cap;
+				float push_x = -dir_y * push, push_y = dir_x * push; // perpendicular to the heading
+				target_vel.x += push_x;
+				target_vel.y += push_y;
+			}
+		}
+
 		return target_vel;
 
 	}
 
+	/** Returns a random velocity of up to magnitude; the Vector2f is this AI's own, overwritten by the next call */
 	Vector2f wander(float magnitude){
-		Random rand = new Random();
 		float rx = (rand.nextFloat()*2-1);
 		float ry = (rand.nextFloat()*2-1);
-		return new Vector2f(rx,ry).normalise().scale(magnitude*rand.nextFloat());
+		return wander_vel.set(rx,ry).normalise().scale(magnitude*rand.nextFloat());
 	}
 
 	/** Performs framewise updates; should be propegated from the base Slick2D game object */
 	@Override
-	public void update(GameContainer gc, int time_passed_ms){
+	public void update(int time_passed_ms){
 
 		/* AI velocity and speed */
-		Vector2f ai_vel = getPhys().getVelocity();
+		Vector2f ai_vel = getPhys().getVelocity(own_vel);
 		float ai_speed	= ai_vel.length(); // ai_speed
 
 		/* we can set target velocity to whatever we want
@@ -129,14 +170,14 @@ public class AITest extends StellarObject{
 
 		// if angles are different enough turn
 		if (rot_mag > 0.05f){
-			getPhys().rotate(ROTATION*rot_sign);
+			getPhys().rotate(ROTATION*rot_sign*getPhys().getFramesPerTick());
 		}
 
 		// if target velocity is different enough to warrant thrusting thrust.
 		if ((target_vel.length() > 0.05f) && (rot_mag < 0.8f*(float)Math.PI ) ){
-			getPhys().accelerateAligned(0f, THRUSTER_ACCELERATION);
+			getPhys().accelerateAligned(0f, THRUSTER_ACCELERATION * getPhys().getFramesPerTick());
 		}
-		super.update(gc, time_passed_ms);
+		super.update(time_passed_ms);
 	}
 
 	/** Returns theta as an angle in the range [0,2π] */
@@ -162,9 +203,10 @@ public class AITest extends StellarObject{
 		public _AITestPhysics(
 			Vector2f centroid,
 			CollisionImage cimg,
-			GraphicalImage gimg
+			GraphicalImage gimg,
+			PhysicsWorld world
 			){
-			super(centroid, 0f, cimg, gimg);
+			super(centroid, 0f, cimg, gimg, world);
 
 			setFriction(FRICTION_DEFAULT);
 		}
@@ -30,18 +30,24 @@ public class Asteroid extends StellarObject {
 	}
 	
 	public static Asteroid makeAsteroid(float x, float y) {
+		return makeAsteroid(x, y, null);
+	}
+	
+	/** As makeAsteroid(x, y), keeping the Asteroid's physical state in world (see PhysicsWorld) */
+	public static Asteroid makeAsteroid(float x, float y, PhysicsWorld world) {
 		//make centroid
 		Vector2f centroid = new Vector2f(x, y);
 
 		//make cimg
 		_AsteroidCollider ac = new _AsteroidCollider();
-		Circle cir = new Circle(x, y, 20f);
+		Circle cir = new Circle(0f, 0f, 20f); //local space: about the centroid
 		
 		CollisionImage cimg = new CollisionImage(cir, ac);
+		cimg.setFilter(CollisionLayer.CATEGORY_DEBRIS, CollisionLayer.MASK_ALL & ~CollisionLayer.CATEGORY_DEBRIS); // asteroids pass through each other
 		GraphicalImage gimg = new GraphicalImage(cir, new GradientFill(0.0f, 0.0f, Color.darkGray, 1.0f, 1.0f, Color.darkGray));
 
 		//make the Asteroid
-		Asteroid as = new Asteroid(new _AsteroidPhysics(centroid, cimg, gimg));
+		Asteroid as = new Asteroid(new _AsteroidPhysics(centroid, cimg, gimg, world));
 
 		//close circular references
 		ac.ast = as;
@@ -55,9 +61,10 @@ public class Asteroid extends StellarObject {
 		public _AsteroidPhysics(
 		Vector2f centroid,
 		CollisionImage cimg,
-		GraphicalImage gimg
+		GraphicalImage gimg,
+		PhysicsWorld world
 		){
-			super(centroid, 0f, cimg, gimg);
+			super(centroid, 0f, cimg, gimg, world);
 		}
 	}
 	
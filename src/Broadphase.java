@@ -0,0 +1,82 @@
+/**
+ * Broadphase.java
+ *
+ * Finds pairs of Shapes whose bounding boxes overlap; these are the only pairs a CollisionLayer
+ * performs precision collision-detection on. Each Shape is known to a Broadphase only by the id which
+ * its CollisionLayer assigned it; bounding boxes are read from the CollisionLayer's AABBSnapshot.
+ *
+ * Implementations:
+ *     - SweepAndPrune:   incremental sort of bounding-box endpoints; good all-rounder
+ *     - SpatialHashGrid: uniform grid; good for many similarly-sized objects (asteroid fields)
+ *     - DynamicAABBTree: bounding-volume hierarchy; good for mixed object sizes
+ *     - SortedSweep:     full re-sort every frame, with a SIMD inner loop; good for very large scenes
+ *     - LinearBVH:       hierarchy rebuilt every frame from Morton order, in parallel; good when everything moves
+ *
+ * A Broadphase also answers region queries (see query()) from the same index, for spatial queries on
+ * the CollisionLayer.
+ *
+ * A Broadphase which keeps its boxes sorted from one frame to the next can also implement SortCounter, so that
+ * the cost of re-sorting shows up in CollisionLayer's statistics (see CollisionStats).
+ *
+ * Author: Wesley Gydé
+ */
+
+public interface Broadphase{
+
+	/** Receives the ids found by query() */
+	public interface QueryCallback{
+
+		/**
+		 * @param id an id whose bounding box overlaps the query box
+		 * @return false to stop the query early
+		 */
+		public boolean report(int id);
+
+	}
+
+	/** Implemented by a Broadphase which re-sorts incrementally (see SweepAndPrune) */
+	public interface SortCounter{
+
+		/** Returns the number of swaps the last findPairs() made while re-sorting */
+		public int getSwapCount();
+
+	}
+
+	/**
+	 * Starts tracking the input id. ids are unique among the Shapes currently in a
+	 * Broadphase; a removed id is not reused until after the next findPairs().
+	 *
+	 * @param id     the id assigned to a Shape by the CollisionLayer
+	 * @param bounds the CollisionLayer's bounding boxes; id's box is already filled in
+	 */
+	public void add(int id, AABBSnapshot bounds);
+
+	/**
+	 * Stops tracking the Shape with the input id. Should be O(1) (or O(log n)); expensive cleanup
+	 * can be put off until the next findPairs().
+	 *
+	 * @param id an id previously passed to add()
+	 */
+	public void remove(int id);
+
+	/**
+	 * Appends every pair of ids whose bounding boxes currently overlap to pairs. Each pair is
+	 * reported once; "A overlaps B" and "B overlaps A" are NOT reported separately. Pairs rejected
+	 * by bounds.canCollide() are never reported.
+	 *
+	 * @param bounds the CollisionLayer's bounding boxes, refreshed for this frame
+	 * @param pairs  the list to append pairs to; it is not cleared first
+	 */
+	public void findPairs(AABBSnapshot bounds, PairList pairs);
+
+	/**
+	 * Reports every tracked id whose bounding box in bounds overlaps the input box, each at most once. May be
+	 * called any number of times between findPairs() calls, and must not allocate. An id removed since the last
+	 * findPairs() may still be reported; the caller filters those out.
+	 *
+	 * @param bounds   the CollisionLayer's bounding boxes
+	 * @param callback receives each id found
+	 */
+	public void query(AABBSnapshot bounds, float min_x, float min_y, float max_x, float max_y, QueryCallback callback);
+
+}
@@ -20,23 +20,30 @@ public class Bullet extends StellarObject {
 	
 	
 	@Override
-	public void update(GameContainer gc, int delta_ms) {
+	public void update(int delta_ms) {
 		life_ms -= delta_ms;
 		if (life_ms <= 0)
 			HP -= 1;
-		super.update(gc, delta_ms);
+		super.update(delta_ms);
 	}
 	
 	public static Bullet makeBullet(float x, float y, float angle, float speed) {
+		return makeBullet(x, y, angle, speed, null);
+	}
+	
+	/** As makeBullet(x, y, angle, speed), keeping the Bullet's physical state in world (see PhysicsWorld) */
+	public static Bullet makeBullet(float x, float y, float angle, float speed, PhysicsWorld world) {
 		Vector2f centroid = new Vector2f(x, y);
 		
 		_BulletCollider bc = new _BulletCollider();
-		Circle cir = new Circle(x, y, 5f);
+		Circle cir = new Circle(0f, 0f, 5f); //local space: about the centroid
 		
 		CollisionImage cimg = new CollisionImage(cir, bc);
+		cimg.setSwept(true); // bullets are fast enough to skip over asteroids between frames
+		cimg.setFilter(CollisionLayer.CATEGORY_PROJECTILE, CollisionLayer.MASK_ALL & ~CollisionLayer.CATEGORY_PROJECTILE); // bullets pass through each other
 		GraphicalImage gimg = new GraphicalImage(cir, new GradientFill(0.0f, 0.0f, Color.green, 1.0f, 1.0f, Color.green));
 		
-		Bullet b = new Bullet(new _BulletPhysics(centroid, cimg, gimg));
+		Bullet b = new Bullet(new _BulletPhysics(centroid, cimg, gimg, world));
 		float dx = (float) Math.cos(angle);
 		float dy = (float) Math.sin(angle);
 		b.getPhys().accelerate(speed * dx, speed * dy);
@@ -50,9 +57,10 @@ public class Bullet extends StellarObject {
 		public _BulletPhysics(
 		Vector2f centroid,
 		CollisionImage cimg,
-		GraphicalImage gimg
+		GraphicalImage gimg,
+		PhysicsWorld world
 		) {
-			super(centroid, 0f, cimg, gimg);
+			super(centroid, 0f, cimg, gimg, world);
 		}
 	}
 	
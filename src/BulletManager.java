@@ -7,39 +7,57 @@ import org.newdawn.slick.fills.*;
 import org.newdawn.slick.*;
 
 public class BulletManager {
-	private Collection<Bullet> bullets;
+	private ArrayList<Bullet> bullets;
+	private ArrayList<Bullet> toDestroy; // reused every update
 	private CollisionLayer cl;
+	private PhysicsWorld world; // where bullets' physical state is kept; null for each bullet to keep its own
+	private int firerCategory;  // CATEGORY_* of whoever fires these; bullets never collide with it
 	
 	protected final int MAX_BULLETS = 4; // max amount of bullets at a time
 	
 	public BulletManager(CollisionLayer cl) {
+		this(cl, null, 0);
+	}
+	
+	public BulletManager(CollisionLayer cl, PhysicsWorld world, int firerCategory) {
 		this.cl = cl;
+		this.world = world;
+		this.firerCategory = firerCategory;
 		this.bullets = new ArrayList<>();
+		this.toDestroy = new ArrayList<>();
 	}
 	
 	public void update(GameContainer gc, int delta) {
-		List<Bullet> toDestroy = new LinkedList<>();
-		for (Bullet b : bullets) {
-			b.update(gc, delta);
+		update(delta);
+	}
+	
+	public void update(int delta) {
+		for (int k = 0; k < bullets.size(); k++) {
+			Bullet b = bullets.get(k);
+			b.update(delta);
 			if (b.getHP() < 1) {
 				toDestroy.add(b);
 			}
 		}
-		for (Bullet b : toDestroy) {
+		for (int k = 0; k < toDestroy.size(); k++) {
+			Bullet b = toDestroy.get(k);
 			bullets.remove(b);
 			b.destroy();
 		}
+		toDestroy.clear();
 	}
 	
 	public void render(GameContainer gc, Graphics g) throws SlickException {
-		for (Bullet b : bullets) {
-			b.render(gc, g);
+		for (int k = 0; k < bullets.size(); k++) {
+			bullets.get(k).render(gc, g);
 		}
 	}
 	
 	public void requestBullet(float x, float y, float angle, float speed) {
 		if (bullets.size() <= MAX_BULLETS) {
-			Bullet result = Bullet.makeBullet(x, y, angle, speed);
+			Bullet result = Bullet.makeBullet(x, y, angle, speed, world);
+			CollisionImage cimg = result.getPhys().getCImg();
+			cimg.setFilter(cimg.getCategory(), cimg.getMask() & ~firerCategory); // never hit whoever fired it
 			result.getPhys().getCImg().addTo(cl);
 			bullets.add(result);
 		}
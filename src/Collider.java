@@ -80,4 +80,12 @@ public abstract class Collider{
 
 	public void inflictDamage(int dam){}
 
+	/**
+	 * Informs this of when, during the last frame, the upcoming collision began; only called when
+	 * one of the two colliding CollisionImages is swept (see CollisionImage.setSwept()).
+	 *
+	 * @param toi the fraction of the last frame's motion, in [0,1], at which the two first touched
+	 */
+	public void informImpactTime(float toi){}
+
 }
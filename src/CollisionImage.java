@@ -3,20 +3,37 @@
  *
  * Handles collision-detection for a StellarObject
  *
+ * The Shape passed in is local-space geometry, turned into a shared ShapeTemplate; this is placed in the world
+ * by setPose() (normally called by Physics), which moves world-space copies made from the template without
+ * allocating. Until a pose is set, the Shape sits where it was given, so a Shape which never moves can simply
+ * be given in world space.
+ *
+ * A concave Polygon is split into convex parts once per template (see ConvexDecomposition), and added to
+ * CollisionLayers as a compound body; the whole Polygon is still what gets drawn.
+ *
+ * Joining several LayerViews of the same CollisionLayer adds this there once, and only changes its layer bits
+ * (see CollisionLayer.setLayers()) for each further view; addTo(CollisionLayer) joins its default layer.
+ *
  * Author: Wesley Gydé
  */
 
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 import org.newdawn.slick.Color;
 import org.newdawn.slick.fills.GradientFill;
 import org.newdawn.slick.GameContainer;
 import org.newdawn.slick.geom.Shape;
-import org.newdawn.slick.geom.Transform;
 import org.newdawn.slick.Graphics;
 import org.newdawn.slick.ShapeFill;
 import org.newdawn.slick.SlickException;
 
 public class CollisionImage{
+
+	//this's place in one CollisionLayer
+	private static class Membership{
+		private int handle; //returned by the CollisionLayer's add()
+		private int layers; //the layer bits joined so far
+	}
 	
 	private static final ShapeFill DEFAULT_FILL = new GradientFill(
 		   0.0f,   0.0f, Color.cyan,
@@ -24,9 +41,20 @@ public class CollisionImage{
 		);
 	private ShapeFill fill;
 
-	private Container<Shape> shape_container;
+	private ShapeTemplate template;
+	private Container<Shape> shape_container; //template, posed in world space (see ShapeTemplate.Posed)
+	private Container<Shape>[] parts;         //convex parts of a concave template, posed, or null
 	private Collider col;
-	private HashSet<CollisionLayer> layers;
+	private HashMap<CollisionLayer, Membership> layers;
+	private boolean swept;
+	private int category; //see CollisionLayer.CATEGORY_*
+	private int mask;
+	private int body_type; //see CollisionLayer.BODY_*
+
+	//where template is placed; see setPose()
+	private float pose_x;
+	private float pose_y;
+	private float pose_rot;
 	
 	//------------------
 	//--| 'structors |--
@@ -40,17 +68,38 @@ public class CollisionImage{
 	 */
 	public CollisionImage(Shape shape, Collider col){
 		super();
-		shape_container = new Container<Shape>(shape);
+
+		template = ShapeTemplate.of(shape);
+		shape_container = new Container<Shape>(template.createPosed());
+		parts = null;
+		Shape[] posed_parts = template.createPosedParts();
+		if (posed_parts != null){
+			parts = newContainers(posed_parts.length);
+			for (int k = 0; k < posed_parts.length; k++){
+				parts[k] = new Container<Shape>(posed_parts[k]);
+			}
+		}
+		pose_x = 0f;
+		pose_y = 0f;
+		pose_rot = 0f;
 		this.col = col;
-		this.layers = new HashSet<CollisionLayer>();
+		this.layers = new HashMap<CollisionLayer, Membership>();
+		swept = false;
+		category = CollisionLayer.CATEGORY_DEFAULT;
+		mask = CollisionLayer.MASK_ALL;
+		body_type = CollisionLayer.BODY_DYNAMIC;
 		fill = DEFAULT_FILL;
 	}
 
 	/** Prepares this for destruction; unsubscribes from all push-event systems. */
 	public void destroy(){
-		for (CollisionLayer cl : layers){
-			cl.remove(shape_container);
+		if (layers.isEmpty()){
+			return; //already destroyed, or never added; destroy() may be called every frame
+		}
+		for (Map.Entry<CollisionLayer, Membership> e : layers.entrySet()){
+			e.getKey().remove(e.getValue().handle);
 		}
+		layers.clear();
 	}
 
 	//---------------------------------
@@ -61,41 +110,134 @@ public class CollisionImage{
 	 * Passes collision information to cl, causing this to be notified when it collides
 	 * with other members of cl.
 	 *
-	 * FIXME: exception for duplicate layer? let the layer take care of that?
-	 *
 	 * @param cl The CollisionLayer which this willadd itself to
+	 * @throws IllegalArgumentException if this is already in cl
 	 */
 	public void addTo( CollisionLayer cl ){
-		cl.add(shape_container, col);
-		layers.add(cl);
+		join(cl, CollisionLayer.LAYER_DEFAULT);
+	}
+
+	/**
+	 * Joins the layer seen by view, causing this to be notified when it collides with other members of that
+	 * layer. If this is already in another layer of the same CollisionLayer, it is not added again.
+	 *
+	 * @param view The layer which this will join
+	 * @throws IllegalArgumentException if this is already in view's layer
+	 */
+	public void addTo( LayerView view ){
+		join(view.getIndex(), view.getBit());
 	}
 
 	/**
 	 * Removes collision information from cl, preventing future notifications about
 	 * collisions with other members of cl.
 	 *
-	 * FIXME: exception for not-currently-added layer? let the layer take care of that?
-	 *
 	 * @param cl The CollisionLayer which this willadd itself to
+	 * @throws IllegalArgumentException if this is not in cl
 	 */
 	public void removeFrom( CollisionLayer cl ){
-		cl.remove(shape_container);
-		layers.remove(cl);
+		leave(cl, CollisionLayer.LAYER_DEFAULT);
+	}
+
+	/**
+	 * Leaves the layer seen by view; this is only removed from view's CollisionLayer once it has left every
+	 * layer there.
+	 *
+	 * @param view The layer which this will leave
+	 * @throws IllegalArgumentException if this is not in view's layer
+	 */
+	public void removeFrom( LayerView view ){
+		leave(view.getIndex(), view.getBit());
+	}
+
+	/** Adds this to cl in the input layer, or adds the layer to this's bits if this is already in cl */
+	private void join( CollisionLayer cl, int layer ){
+		Membership m = layers.get(cl);
+		if (m == null){
+			m = new Membership();
+			m.layers = layer;
+			if (parts != null){
+				m.handle = cl.addCompound(parts, col, swept, category, mask, body_type, layer);
+			} else {
+				m.handle = cl.add(shape_container, col, swept, category, mask, body_type, layer);
+			}
+			layers.put(cl, m);
+		} else if ((m.layers & layer) != 0){
+			throw new IllegalArgumentException("CollisionImage is already in this layer");
+		} else {
+			m.layers |= layer;
+			cl.setLayers(m.handle, m.layers);
+		}
+	}
+
+	/** Takes the input layer out of this's bits in cl, removing this from cl if none are left */
+	private void leave( CollisionLayer cl, int layer ){
+		Membership m = layers.get(cl);
+		if (m == null || (m.layers & layer) == 0){
+			throw new IllegalArgumentException("CollisionImage is not in this layer");
+		}
+		m.layers &= ~layer;
+		if (m.layers == 0){
+			layers.remove(cl);
+			cl.remove(m.handle);
+		} else {
+			cl.setLayers(m.handle, m.layers);
+		}
 	}
 
 	//--------------------------
 	//--| Updates / Graphics |--
 	//--------------------------
 
-	/** Updates the location/orientation of this via the input Transform. */
-	public void transform(Transform t){
-		shape_container.val = shape_container.val.transform(t);
+	/**
+	 * Places this in the world: the template's origin at (x, y), rotated by rotation radians about it. Nothing is
+	 * allocated or transformed here; the posed Shapes work out their points when the CollisionLayers next read them.
+	 */
+	public void setPose(float x, float y, float rotation){
+		pose_x = x;
+		pose_y = y;
+		pose_rot = rotation;
+		((ShapeTemplate.Posed)shape_container.val).setPose(x, y, rotation);
+		if (parts != null){
+			for (Container<Shape> part : parts){
+				((ShapeTemplate.Posed)part.val).setPose(x, y, rotation);
+			}
+		}
 	}
 
 	/** Performs graphical updates; should be propegated from the base Slick2D game object */
 	public void render(GameContainer gc, Graphics g) throws SlickException{
-		g.draw( shape_container.val, fill ); //For some reason, using a fill is faster than g.setColor().
+		template.draw( g, fill, pose_x, pose_y, pose_rot ); //For some reason, using a fill is faster than g.setColor().
+	}
+
+	/**
+	 * Enables swept collision-detection: this is tested along the path it took since the last frame, so it
+	 * cannot pass through other Shapes when moving fast. Only affects CollisionLayers added to afterwards.
+	 */
+	public void setSwept(boolean swept){ this.swept = swept; }
+	public boolean isSwept(){ return swept; }
+
+	/**
+	 * Sets which CollisionLayer.CATEGORY_* this belongs to, and which categories it may collide with; pairs
+	 * which fail the filter are never tested. Only affects CollisionLayers added to afterwards.
+	 *
+	 * @param category the CATEGORY_* bit(s) this belongs to
+	 * @param mask     the CATEGORY_* bits this may collide with
+	 */
+	public void setFilter(int category, int mask){
+		this.category = category;
+		this.mask = mask;
 	}
+	public int getCategory(){ return category; }
+	public int getMask(){ return mask; }
+
+	/**
+	 * Sets whether this is a static, kinematic or dynamic body (see CollisionLayer.BODY_*); dynamic by default.
+	 * A static CollisionImage costs nothing per frame, but must not be transformed while in a CollisionLayer.
+	 * Only affects CollisionLayers added to afterwards.
+	 */
+	public void setBodyType(int body_type){ this.body_type = body_type; }
+	public int getBodyType(){ return body_type; }
 
 	/** Sets the color used to draw this (see render() ). */
 	public void setColor(Color c){
@@ -105,4 +247,10 @@ public class CollisionImage{
 		);
 	}
 
+	/** Returns a new array of n Containers; Java cannot create a generic array directly */
+	@SuppressWarnings("unchecked")
+	private static Container<Shape>[] newContainers(int n){
+		return (Container<Shape>[]) new Container<?>[n];
+	}
+
 }
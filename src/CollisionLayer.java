@@ -3,143 +3,538 @@
  *
  * Checks a group of Shapes for intercollisions, and activates corresponding Colliders when a collision is detected.
  *
+ * Candidate pairs come from the Broadphase chosen at construction (see Broadphase.java); only those pairs get
+ * precision collision-detection. Colliders are either called directly (notifyCollisions()) or reported as
+ * contact events (notifyContacts()).
+ *
  * Author: Wesley Gydé
  */
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.newdawn.slick.geom.Circle;
 import org.newdawn.slick.geom.Shape;
 
 public class CollisionLayer{
-	
+
+	//collision categories; a Shape's category is one (or more) of these bits
+	public static final int CATEGORY_DEFAULT    = 1;
+	public static final int CATEGORY_PLAYER     = 1 << 1;
+	public static final int CATEGORY_ENEMY      = 1 << 2;
+	public static final int CATEGORY_PROJECTILE = 1 << 3;
+	public static final int CATEGORY_DEBRIS     = 1 << 4;
+
+	/** A mask accepting every category */
+	public static final int MASK_ALL = ~0;
+
+	//layers; a Shape is in one or more of 32 layers, each a bit (see LayerView)
+	public static final int LAYER_DEFAULT = 1;
+	public static final int LAYERS_ALL    = ~0;
+
+	//body types
+	public static final int BODY_STATIC    = 0; //never moves
+	public static final int BODY_KINEMATIC = 1; //moves, but never collides with static bodies
+	public static final int BODY_DYNAMIC   = 2; //moves, and collides with everything
+
 	private class ShapeCollider{
-		
+
 		private Container<Shape> s;
 		private Collider c;
+		private int id;
+		private int owner;   //id of the first part of this's body; just id, unless this is part of a compound body
+		private int[] parts; //ids of every part of a compound body, on its owner only; otherwise null
+		private int body_type;
+		private int category;
+		private int mask;
+		private int layers;
+		private int kind;
+		private Class<?> kind_class; //the class kind was computed for
+		private boolean pending_removal; //removed during dispatch; detached by the next flushCommands()
+
+		//swept collision-detection; see notifyCollisions(). Motion is tracked for every moving Shape, so that a
+		//swept Shape can be tested against where its partner moved too
+		private boolean swept;
+		private boolean seen;    //false until updateMotion() has recorded where this is
+		private float last_cx;
+		private float last_cy;
+		private float motion_x;
+		private float motion_y;
+
+		//pair caching; see prunePairs()
+		private double travel;   //bounds how far any point of s has moved since s was added, summed frame by frame
+		private int ref_kind;    //kind as of the last updateTravel(); KIND_GENERIC if nothing is recorded
+		private float[] ref_pts; //s's points as of the last updateTravel(), or a circle's center and radius
 
 		/**
 		 * Constructor
-		 * 
-		 * @param s the Shape to be used in precision-collision-detection
-		 * @param c the Collider to be activated if/when a collision is detected
+		 *
+		 * @param s  the Shape to be used in precision-collision-detection
+		 * @param c  the Collider to be activated if/when a collision is detected
+		 * @param id        the slot this occupies in colliders
+		 * @param owner     the slot of the first part of this's body (id, for a single Shape)
+		 * @param swept     if true, s is also tested along the path it took since the last frame
+		 * @param body_type one of BODY_*
+		 * @param category  the CATEGORY_* bit(s) s belongs to
+		 * @param mask      the CATEGORY_* bits s may collide with
+		 * @param layers    the layer bit(s) s belongs to (see LayerView)
 		 */
-		public ShapeCollider(Container<Shape> s, Collider c){
+		public ShapeCollider(Container<Shape> s, Collider c, int id, int owner, boolean swept, int body_type, int category, int mask, int layers){
 			this.s = s;
 			this.c = c;
+			this.id = id;
+			this.owner = owner;
+			parts = null;
+			this.body_type = body_type;
+			this.category = category;
+			this.mask = mask;
+			this.layers = layers;
+			kind_class = null;
+			pending_removal = false;
+
+			this.swept = swept;
+			seen = false;
+			last_cx = 0f;
+			last_cy = 0f;
+			motion_x = 0f;
+			motion_y = 0f;
+
+			travel = 0.0;
+			ref_kind = Narrowphase.KIND_GENERIC;
+			ref_pts = null;
 		}
 
 		/**
-		 * Performs precision collision-detection on the input ShapeColliderBound, and
-		 * activates the Colliders for this and the input ShapeColliderBound if a collision
-		 * is detected
-		 * 
-		 * @param scb The ShapeColliderBound to perform precision collision-detection with
+		 * Performs precision collision-detection on the input ShapeCollider, without activating any Colliders.
+		 * Only reads state, so several threads may test different pairs at once (see notifyCollisions()).
+		 *
+		 * @param sc The ShapeCollider to perform precision collision-detection with
+		 * @return NO_CONTACT, or when during the last frame the two first touched (1 if neither is swept)
 		 */
-		public void collide( ShapeCollider sc ){
+		public float test( ShapeCollider sc ){
 
-			//are the Shapes belonging to this and scb colliding?
-			if (   getShape().intersects( sc.getShape() )
-				|| getShape().contains( sc.getShape() )
-				|| sc.getShape().contains( getShape() )
-				){
+			//are the Shapes belonging to this and sc colliding?
+			int result = Narrowphase.test(getShape(), getKind(), sc.getShape(), sc.getKind());
 
-				//inform the colliders of a collision
-				c.collide( sc.getCollider() );
-				sc.getCollider().collide( c );
+			if (swept || sc.swept){
+
+				//did they collide at any point along the way?
+				float toi = timeOfImpact(sc);
+				if (result == Narrowphase.SEPARATE && toi == Narrowphase.NO_IMPACT){
+					return NO_CONTACT;
+				}
+				if (toi == Narrowphase.NO_IMPACT){
+					toi = 1f; //overlapping now, though the sweep missed it (see Narrowphase.timeOfImpact())
+				}
+				return toi;
 
 			}
+			return (result == Narrowphase.SEPARATE) ? NO_CONTACT : 1f;
 
 		}
 
-		public boolean sameContainer(Container<Shape> s){return this.s == s;}
-		public Shape getShape(){ return s.val; }
-		public Collider getCollider(){ return c; }
+		/**
+		 * Activates the Colliders for this and sc, for a contact found by test()
+		 *
+		 * @param sc  the ShapeCollider this collided with
+		 * @param toi the time of impact returned by test()
+		 */
+		public void dispatch( ShapeCollider sc, float toi ){
+			if (swept || sc.swept){
+				c.informImpactTime(toi);
+				sc.getCollider().informImpactTime(toi);
+			}
 
-	}
+			//inform the colliders of a collision
+			c.collide( sc.getCollider() );
+			sc.getCollider().collide( c );
+		}
 
-	//One bound (upper/lower x/y) of a Shape's bounding box
-	private class ShapeColliderBound implements Comparable<ShapeColliderBound>{
-		
-		//which_bound values
-		public static final int LOWER_X = 0;
-		public static final int LOWER_Y = 1;
-		public static final int UPPER_X = 2;
-		public static final int UPPER_Y = 3;
-		
-		private ShapeCollider sc;
-		private int which_bound;
+		/**
+		 * Returns when, during the last frame, this and sc first touched; at least one must be swept. The swept
+		 * one is moved along its path relative to the other, so a partner moving alongside it is not hit.
+		 */
+		private float timeOfImpact( ShapeCollider sc ){
+			float dx = motion_x - sc.motion_x;
+			float dy = motion_y - sc.motion_y;
+			if (swept){
+				return Narrowphase.timeOfImpact(getShape(), getKind(), dx, dy, sc.getShape(), sc.getKind());
+			}
+			return Narrowphase.timeOfImpact(sc.getShape(), sc.getKind(), -dx, -dy, getShape(), getKind());
+		}
 
 		/**
-		 * Constructor
-		 * 
-		 * @param s           a shape, used for precision-collision-detection
-		 * @param c           a collider to activate if a collision is detected
-		 * @param which_bound which type of bound is this? (upper/lower, x/y)
+		 * Records how far this has moved since the last call. The first call only records where this is, so a
+		 * Shape is never swept from wherever it was made (e.g. a bullet from inside the ship firing it).
 		 */
-		public ShapeColliderBound(ShapeCollider sc, int which_bound){
-			assert
-				   (which_bound == LOWER_X)
-				|| (which_bound == LOWER_Y)
-				|| (which_bound == UPPER_X)
-				|| (which_bound == UPPER_Y);
-			
-			this.sc = sc;
-			this.which_bound = which_bound;
-		}
-
-		
-		/** Returns the bound stored by this (the bound of shape corresponding to which_bound) */
-		public float getBound(){
-			switch (which_bound){
-				case LOWER_X:
-					return sc.getShape().getMinX();
-				case LOWER_Y:
-					return sc.getShape().getMinY();
-				case UPPER_X:
-					return sc.getShape().getMaxX();
-				case UPPER_Y:
-					return sc.getShape().getMaxY();
-			}
-
-			//FIXME: invlaid which_bound value
-
-			return -1;
-		}
-	
-		public int getWhichBound(){ return which_bound; }
-		public ShapeCollider getShapeCollider(){ return sc; }
+		public void updateMotion(){
+			Shape shape = getShape();
+			float cx = shape.getCenterX(), cy = shape.getCenterY();
+			if (!seen){
+				last_cx = cx;
+				last_cy = cy;
+				seen = true;
+			}
+			motion_x = cx - last_cx;
+			motion_y = cy - last_cy;
+			last_cx = cx;
+			last_cy = cy;
+		}
 
-		@Override
-		public int compareTo(ShapeColliderBound scb){
-			float f = getBound() - scb.getBound();
-			int i = 0;
-			if (f > 0){
-				i =  1;
-			}else if (f < 0){
-				i = -1;
+		/**
+		 * Adds to travel how far any point of this's Shape has moved since the last call. For a polygon, that is
+		 * its furthest-moving corner: every other point lies between corners, so moves no further than they do.
+		 * If the Shape changes kind or number of corners, travel jumps by TRAVEL_RESET, outdating every gap
+		 * measured before. Shapes of KIND_GENERIC are never cached, so are not tracked.
+		 */
+		public void updateTravel(){
+			int kind = getKind();
+			if (kind == Narrowphase.KIND_GENERIC){
+				return;
+			}
+
+			Shape shape = getShape();
+			if (kind == Narrowphase.KIND_CIRCLE){
+				Circle circle = (Circle)shape;
+				float cx = circle.getCenterX(), cy = circle.getCenterY(), r = circle.getRadius();
+				if (ref_kind == kind){
+					float dx = cx - ref_pts[0], dy = cy - ref_pts[1];
+					travel += Math.sqrt(dx*dx + dy*dy) + Math.abs(r - ref_pts[2]);
+				} else {
+					travel += TRAVEL_RESET;
+					ref_pts = new float[3];
+				}
+				ref_pts[0] = cx;
+				ref_pts[1] = cy;
+				ref_pts[2] = r;
+			} else {
+				float[] pts = shape.getPoints();
+				if (ref_kind == kind && ref_pts.length == pts.length){
+					float max_sq = 0f;
+					for (int k = 0; k < pts.length; k += 2){
+						float dx = pts[k] - ref_pts[k], dy = pts[k + 1] - ref_pts[k + 1];
+						max_sq = Math.max(max_sq, dx*dx + dy*dy);
+					}
+					travel += Math.sqrt(max_sq);
+				} else {
+					travel += TRAVEL_RESET;
+					ref_pts = new float[pts.length];
+				}
+				System.arraycopy(pts, 0, ref_pts, 0, pts.length);
+			}
+			ref_kind = kind;
+		}
+
+		/**
+		 * Returns true if test() results for this and sc may be cached (see prunePairs()). Swept pairs depend on
+		 * more than where the Shapes are, GENERIC Shapes have no cheap bounds, and two circles are quicker to test
+		 * than to look up.
+		 */
+		public boolean canCache( ShapeCollider sc ){
+			return !swept && !sc.swept
+				&& kind != Narrowphase.KIND_GENERIC && sc.kind != Narrowphase.KIND_GENERIC
+				&& (kind != Narrowphase.KIND_CIRCLE || sc.kind != Narrowphase.KIND_CIRCLE);
+		}
+
+		/**
+		 * Measures how far this and sc can move before test() could change its answer: a positive gap if they
+		 * are apart, a negative one (minus the overlap) if they touch, or 0 if there is nothing to cache. Only
+		 * reads state, like test().
+		 *
+		 * @param sc       the ShapeCollider just tested against this
+		 * @param touching true if test() found a contact
+		 */
+		public float measureGap( ShapeCollider sc, boolean touching ){
+			if (!canCache(sc)){
+				return 0f;
+			}
+			if (touching){
+				return -Narrowphase.overlap(getShape(), kind, sc.getShape(), sc.kind);
 			}
-			return i;
+			return Narrowphase.separation(getShape(), kind, sc.getShape(), sc.kind);
+		}
+
+		/** Returns the Narrowphase kind of this's Shape; only reclassified if the Shape's class changes */
+		public int getKind(){
+			Shape shape = getShape();
+			if (shape.getClass() != kind_class){
+				kind = Narrowphase.classify(shape);
+				kind_class = shape.getClass();
+			}
+			return kind;
+		}
+
+		public Shape getShape(){ return s.val; }
+		public Collider getCollider(){ return c; }
+		public int getId(){ return id; }
+		public int getOwner(){ return owner; }
+		public int[] getParts(){ return parts; }
+		public void setParts(int[] parts){ this.parts = parts; }
+		public int getBodyType(){ return body_type; }
+		public int getCategory(){ return category; }
+		public int getMask(){ return mask; }
+		public int getLayers(){ return layers; }
+		public void setLayers(int layers){ this.layers = layers; }
+
+		/** Returns true if the collision filters of this and sc accept each other, and they share a layer */
+		public boolean canCollide(ShapeCollider sc){
+			return (category & sc.mask) != 0 && (sc.category & mask) != 0 && (layers & sc.layers) != 0;
+		}
+		public boolean isSwept(){ return swept; }
+		public float getMotionX(){ return motion_x; }
+		public float getMotionY(){ return motion_y; }
+		public double getTravel(){ return travel; }
+		public boolean isPendingRemoval(){ return pending_removal; }
+		public void setPendingRemoval(){ pending_removal = true; }
+
+	}
+
+	//A queued add, remove or setLayers() (see flushCommands()); an add's handle is reserved when it is queued
+	private static class Command{
+
+		private int type; //one of COMMAND_*
+		private int handle;
+		private Container<Shape> s;       //a single Shape to add
+		private Container<Shape>[] parts; //a compound body's parts to add; null for a single Shape or a remove
+		private Collider c;
+		private boolean swept;
+		private int category;
+		private int mask;
+		private int body_type;
+		private int layers;
+
+		public Command(int type, int handle){
+			this.type = type;
+			this.handle = handle;
 		}
-			
+
 	}
 
-	private LinkedList<ShapeColliderBound> bounds_x;
-	private LinkedList<ShapeColliderBound> bounds_y;
+	private static final int INITIAL_CAPACITY = 64;
+
+	//returned by ShapeCollider.test() when two Shapes do not touch
+	private static final float NO_CONTACT = Narrowphase.NO_IMPACT;
+
+	//pair caching: gaps (or overlaps) narrower than CACHE_SLOP are not trusted, and a Shape which changes shape
+	//entirely moves TRAVEL_RESET, further than any gap (see ShapeCollider.updateTravel())
+	private static final float CACHE_SLOP = 0.01f;
+	private static final double TRAVEL_RESET = 1e9;
+
+	//raycast() checks the ray in steps of this length, stopping at the first step with a hit
+	private static final float RAY_STEP = 128f;
+
+	//parallel narrowphase; chunks are a fixed size so the split never depends on the thread count
+	private static final int PARALLEL_CHUNK_SIZE = 256;
+	private static final int PARALLEL_MIN_PAIRS = 2 * PARALLEL_CHUNK_SIZE;
+
+	//handle = (generation << SLOT_BITS) | slot
+	private static final int SLOT_BITS = 20;
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+	private static final int MAX_GENERATION = (1 << (31 - SLOT_BITS)) - 1;
+	private static final int NULL_ID = -1;
+
+	//queued command types (see flushCommands())
+	private static final int COMMAND_ADD        = 0;
+	private static final int COMMAND_REMOVE     = 1;
+	private static final int COMMAND_SET_LAYERS = 2;
+
+	//ShapeColliders, indexed by id (slot); ids of removed ShapeColliders are reused
+	private ShapeCollider[] colliders;
+	private int[] generations;
+	private int[] free_ids;
+	private int free_count;
+	private AtomicInteger next_id; //atomic so that addDeferred() can reserve ids from any thread
+
+	//queued structural changes, applied in order by flushCommands(); dispatching is true while notifyCollisions()
+	//is calling Colliders, during which add() and remove() queue their changes instead of making them
+	private ConcurrentLinkedQueue<Command> commands;
+	private boolean dispatching;
+
+	//ids removed since the last notifyCollisions(); not reused until after it (see Broadphase.add())
+	private int[] removed_ids;
+	private int removed_count;
+
+	//the Collider last added under each id; unlike colliders, kept after remove(), so that a removed Shape's
+	//contacts can still be reported as ending (see notifyContacts())
+	private Collider[] contact_colliders;
+
+	//pairs touching as of the last notifyContacts(), and scratch for the pairs touching now
+	private PairSet active_contacts;
+	private PairSet current_contacts;
+
+	//compound bodies (see addCompound()); while there are any, each body pair is dispatched at most once a
+	//frame, tracked in body_pairs by owner ids
+	private int compound_count;
+	private PairSet body_pairs;
+
+	//handles of the Shapes in this, for duplicate-add detection and remove(Container)
+	private HashMap<Container<Shape>, Integer> handles;
+
+	//moving (kinematic and dynamic) Shapes
+	private Broadphase broadphase;
+	private AABBSnapshot bounds;
+
+	//static Shapes; their boxes are never refreshed, and the tree is only queried, never asked for pairs
+	private DynamicAABBTree static_index;
+	private AABBSnapshot static_bounds;
+	private Broadphase.QueryCallback static_pair_query;
+	private int static_query_id; //the dynamic Shape static_pair_query is finding pairs for
+
+	//candidate pairs from the broadphase; reused every frame
+	private PairList pairs;
+
+	//temporal coherence (see prunePairs()): the last result for each pair, as a signed gap (see
+	//ShapeCollider.measureGap()), with how far each Shape had travelled then. pair_cache holds the current
+	//frame's entries; next_pair_cache is scratch for the next frame's
+	private boolean pair_caching;
+	private PairCache pair_cache;
+	private PairCache next_pair_cache;
+	private float[] pair_gaps;         //per candidate pair, measured by the narrowphase; 0 if not to be cached
+	private boolean[] cached_contacts; //per candidate pair, true if the cache says it touches (so is not tested)
+	private int cached_pair_count;     //candidate pairs whose test the last prunePairs() skipped
+
+	//the current frame's statistics, or null while they are not being recorded (see setRecordingStats())
+	private CollisionStats stats;
+
+	//parallel narrowphase, or null (see setParallel())
+	private ForkJoinPool pool;
+
+	//narrowphase results (see testPairs()); chunk c's contacts are pair indices, stored in
+	//contacts[c*PARALLEL_CHUNK_SIZE ...], with their times of impact in contact_tois
+	private int[] contacts;
+	private float[] contact_tois;
+	private int[] chunk_counts;
+
+	//spatial-query state, read by the Broadphase.QueryCallbacks below; see queryAABB() etc.
+	private Broadphase.QueryCallback aabb_query;
+	private Broadphase.QueryCallback radius_query;
+	private Broadphase.QueryCallback ray_query;
+	private int query_mask;
+	private int query_layers;
+	private Collider[] query_out;
+	private int query_count;
+	private float query_x;
+	private float query_y;
+	private float query_dx; //ray direction, or circle radius
+	private float query_dy;
+	private float ray_best;
+	private int ray_best_id;
+
+	//a query reports each body at most once: only if query_marks[owner] != query_stamp
+	private int[] query_marks;
+	private int query_stamp;
 
 	//------------------
 	//--| 'structors |--
 	//------------------
 
 	/**
-	 * Creates and returns a HitLayer
+	 * Creates and returns a HitLayer, using a SweepAndPrune broadphase
 	 */
 	public CollisionLayer(){
+		this(new SweepAndPrune());
+	}
+
+	/**
+	 * Creates and returns a HitLayer
+	 *
+	 * @param broadphase finds candidate pairs for this; must not be shared with another CollisionLayer
+	 */
+	public CollisionLayer(Broadphase broadphase){
+
+		colliders = new ShapeCollider[INITIAL_CAPACITY];
+		generations = new int[INITIAL_CAPACITY];
+		contact_colliders = new Collider[INITIAL_CAPACITY];
+		active_contacts = new PairSet();
+		current_contacts = new PairSet();
+		compound_count = 0;
+		body_pairs = new PairSet();
+		query_marks = new int[INITIAL_CAPACITY];
+		query_stamp = 0;
+		free_ids = new int[INITIAL_CAPACITY];
+		free_count = 0;
+		next_id = new AtomicInteger(0);
+		removed_ids = new int[INITIAL_CAPACITY];
+		removed_count = 0;
+		handles = new HashMap<Container<Shape>, Integer>();
+		commands = new ConcurrentLinkedQueue<Command>();
+		dispatching = false;
 
-		bounds_x = new LinkedList<ShapeColliderBound>();
-		bounds_y = new LinkedList<ShapeColliderBound>();
+		this.broadphase = broadphase;
+		bounds = new AABBSnapshot(INITIAL_CAPACITY);
+		static_index = new DynamicAABBTree(0f);
+		static_bounds = new AABBSnapshot(INITIAL_CAPACITY);
+		pairs = new PairList();
+
+		pair_caching = true;
+		pair_cache = new PairCache();
+		next_pair_cache = new PairCache();
+		pair_gaps = new float[0];
+		cached_contacts = new boolean[0];
+		cached_pair_count = 0;
+
+		stats = null;
+		pool = null;
+		contacts = new int[0];
+		contact_tois = new float[0];
+		chunk_counts = new int[0];
+
+		static_pair_query = new Broadphase.QueryCallback(){
+			@Override
+			public boolean report(int id){
+				if (colliders[static_query_id].canCollide(colliders[id])){
+					pairs.add(static_query_id, id);
+				}
+				return true;
+			}
+		};
+
+		//a Shape found by the Broadphase may have been removed since (or be queued for removal); it may also not
+		//pass query_mask or query_layers
+		aabb_query = new Broadphase.QueryCallback(){
+			@Override
+			public boolean report(int id){
+				ShapeCollider sc = colliders[id];
+				if (   isLive(sc) && (sc.getCategory() & query_mask) != 0 && (sc.getLayers() & query_layers) != 0
+					&& query_marks[sc.getOwner()] != query_stamp
+					){
+					query_marks[sc.getOwner()] = query_stamp;
+					query_out[query_count++] = sc.getCollider();
+				}
+				return query_count < query_out.length;
+			}
+		};
+		radius_query = new Broadphase.QueryCallback(){
+			@Override
+			public boolean report(int id){
+				ShapeCollider sc = colliders[id];
+				if (   isLive(sc) && (sc.getCategory() & query_mask) != 0 && (sc.getLayers() & query_layers) != 0
+					&& query_marks[sc.getOwner()] != query_stamp
+					&& Narrowphase.touchesCircle(sc.getShape(), sc.getKind(), query_x, query_y, query_dx)
+					){
+					query_marks[sc.getOwner()] = query_stamp;
+					query_out[query_count++] = sc.getCollider();
+				}
+				return query_count < query_out.length;
+			}
+		};
+		ray_query = new Broadphase.QueryCallback(){
+			@Override
+			public boolean report(int id){
+				ShapeCollider sc = colliders[id];
+				if (isLive(sc) && (sc.getCategory() & query_mask) != 0 && (sc.getLayers() & query_layers) != 0){
+					float t = Narrowphase.raycast(sc.getShape(), sc.getKind(), query_x, query_y, query_dx, query_dy);
+					if (t != Narrowphase.NO_IMPACT && (ray_best_id < 0 || t < ray_best)){
+						ray_best = t;
+						ray_best_id = id;
+					}
+				}
+				return true;
+			}
+		};
 
 	}
 
@@ -149,45 +544,489 @@ public class CollisionLayer{
 
 	/**
 	 * Adds s to this CollisionLayer, and activates c when s collides with other Shapes in this CollisionLayer.
-	 * 
-	 * FIXME: Throws an exception if s is already in this CollisionLayer.
 	 *
 	 * @param s the Shape to add
 	 * @param c the Collider to associate with s
+	 * @return a handle for s, to be passed to remove()
+	 * @throws IllegalArgumentException if s is already in this CollisionLayer
 	 */
-	public void add(Container<Shape> s, Collider c){
-		//FIXME: exception for adding duplicate Shape
+	public int add(Container<Shape> s, Collider c){
+		return add(s, c, false);
+	}
+
+	/**
+	 * Adds s to this CollisionLayer, and activates c when s collides with other Shapes in this CollisionLayer.
+	 * A swept Shape is also tested along the straight path its center took since the last frame, so
+	 * fast-moving Shapes cannot pass through others between frames.
+	 *
+	 * @param s     the Shape to add
+	 * @param c     the Collider to associate with s
+	 * @param swept true to enable swept collision-detection for s
+	 * @return a handle for s, to be passed to remove()
+	 * @throws IllegalArgumentException if s is already in this CollisionLayer
+	 */
+	public int add(Container<Shape> s, Collider c, boolean swept){
+		return add(s, c, swept, CATEGORY_DEFAULT, MASK_ALL);
+	}
 
-		ShapeCollider sc = new ShapeCollider(s, c);
-		bounds_x.add(new ShapeColliderBound( sc, ShapeColliderBound.LOWER_X ));
-		bounds_y.add(new ShapeColliderBound( sc, ShapeColliderBound.LOWER_Y ));
-		bounds_x.add(new ShapeColliderBound( sc, ShapeColliderBound.UPPER_X ));
-		bounds_y.add(new ShapeColliderBound( sc, ShapeColliderBound.UPPER_Y ));
+	/**
+	 * Adds s to this CollisionLayer, and activates c when s collides with other Shapes in this CollisionLayer
+	 * whose category is in mask (and whose mask contains category).
+	 *
+	 * @param s        the Shape to add
+	 * @param c        the Collider to associate with s
+	 * @param swept    true to enable swept collision-detection for s
+	 * @param category the CATEGORY_* bit(s) s belongs to
+	 * @param mask     the CATEGORY_* bits s may collide with, e.g. MASK_ALL & ~CATEGORY_DEBRIS
+	 * @return a handle for s, to be passed to remove()
+	 * @throws IllegalArgumentException if s is already in this CollisionLayer, or category is 0
+	 */
+	public int add(Container<Shape> s, Collider c, boolean swept, int category, int mask){
+		return add(s, c, swept, category, mask, BODY_DYNAMIC);
+	}
 
+	/**
+	 * Adds s to this CollisionLayer as a body of the input type, and activates c when s collides with other
+	 * Shapes in this CollisionLayer whose category is in mask (and whose mask contains category). A static
+	 * Shape must not move while it is in this CollisionLayer; remove and re-add it instead.
+	 *
+	 * @param s         the Shape to add
+	 * @param c         the Collider to associate with s
+	 * @param swept     true to enable swept collision-detection for s (ignored for static Shapes)
+	 * @param category  the CATEGORY_* bit(s) s belongs to
+	 * @param mask      the CATEGORY_* bits s may collide with, e.g. MASK_ALL & ~CATEGORY_DEBRIS
+	 * @param body_type BODY_STATIC, BODY_KINEMATIC or BODY_DYNAMIC
+	 * @return a handle for s, to be passed to remove()
+	 * @throws IllegalArgumentException if s is already in this CollisionLayer, category is 0, or body_type is unknown
+	 */
+	public int add(Container<Shape> s, Collider c, boolean swept, int category, int mask, int body_type){
+		return add(s, c, swept, category, mask, body_type, LAYER_DEFAULT);
 	}
 
 	/**
-	 * Removes s from this CollisionLayer.
+	 * Adds s to this CollisionLayer as a member of the input layers (see LayerView); s is only paired with Shapes
+	 * which share at least one of them, and is only found by queries for them. See the other add()s for the
+	 * other parameters.
 	 *
-	 * FIXME: Throws an exception if s is not in this CollisionLayer.
+	 * @param layers the layer bit(s) s belongs to, e.g. LAYER_DEFAULT | (1 << 3)
+	 * @return a handle for s, to be passed to remove()
+	 * @throws IllegalArgumentException if s is already in this CollisionLayer, category or layers is 0, or body_type is unknown
+	 */
+	public int add(Container<Shape> s, Collider c, boolean swept, int category, int mask, int body_type, int layers){
+		if (dispatching){
+			return addDeferred(s, c, swept, category, mask, body_type, layers);
+		}
+		checkAdd(s, category, body_type, layers);
+		return attachShape(s, c, swept, category, mask, body_type, layers, allocateId());
+	}
+
+	/**
+	 * Adds a compound body to this CollisionLayer: several Shapes (typically the convex parts of one concave
+	 * Shape; see ConvexDecomposition) which move together and share one Collider. Each part has its own
+	 * bounding box in the Broadphase, so only the parts near another body are tested; parts of the same body
+	 * are never tested against each other, and a body touching several parts of another still collides with
+	 * it only once per frame.
+	 *
+	 * @param parts     the Shapes making up the body
+	 * @param c         the Collider to associate with the body
+	 * @param swept     true to enable swept collision-detection for every part (ignored for static bodies)
+	 * @param category  the CATEGORY_* bit(s) the body belongs to
+	 * @param mask      the CATEGORY_* bits the body may collide with
+	 * @param body_type BODY_STATIC, BODY_KINEMATIC or BODY_DYNAMIC
+	 * @return a handle for the whole body, to be passed to remove()
+	 * @throws IllegalArgumentException if parts is empty, or any part is already in this CollisionLayer (see also add())
+	 */
+	public int addCompound(Container<Shape>[] parts, Collider c, boolean swept, int category, int mask, int body_type){
+		return addCompound(parts, c, swept, category, mask, body_type, LAYER_DEFAULT);
+	}
+
+	/** As addCompound() above, with the body in the input layers (see add()) */
+	public int addCompound(Container<Shape>[] parts, Collider c, boolean swept, int category, int mask, int body_type, int layers){
+		if (dispatching){
+			return addCompoundDeferred(parts, c, swept, category, mask, body_type, layers);
+		}
+		checkParts(parts, category, body_type, layers);
+		for (Container<Shape> part : parts){
+			checkAdd(part, category, body_type, layers);
+		}
+
+		int[] part_ids = new int[parts.length];
+		for (int k = 0; k < parts.length; k++){
+			part_ids[k] = allocateId();
+		}
+		return attachCompound(parts, c, swept, category, mask, body_type, layers, part_ids);
+	}
+
+	/**
+	 * Queues s to be added to this CollisionLayer by the next flushCommands() (which notifyCollisions() and
+	 * notifyContacts() start with), and returns its handle straight away. Safe to call from any thread, and
+	 * from Colliders; see add() for the parameters. The handle may be passed to removeDeferred() at once, but
+	 * contains() is false for it until the add is applied.
+	 *
+	 * @return a handle for s, to be passed to remove() or removeDeferred()
+	 * @throws IllegalArgumentException if category is 0, or body_type is unknown; if s is already in this
+	 *         CollisionLayer, that is only detected (and thrown) by flushCommands()
+	 */
+	public int addDeferred(Container<Shape> s, Collider c, boolean swept, int category, int mask, int body_type){
+		return addDeferred(s, c, swept, category, mask, body_type, LAYER_DEFAULT);
+	}
+
+	/** As addDeferred() above, with s in the input layers (see add()) */
+	public int addDeferred(Container<Shape> s, Collider c, boolean swept, int category, int mask, int body_type, int layers){
+		checkFilter(category, body_type, layers);
+
+		Command command = new Command(COMMAND_ADD, reserveIds(1));
+		command.s = s;
+		command.c = c;
+		command.swept = swept;
+		command.category = category;
+		command.mask = mask;
+		command.body_type = body_type;
+		command.layers = layers;
+		commands.add(command);
+		return command.handle;
+	}
+
+	/**
+	 * Queues a compound body to be added to this CollisionLayer by the next flushCommands(), and returns its
+	 * handle straight away. Safe to call from any thread; see addCompound() and addDeferred().
+	 *
+	 * @return a handle for the whole body, to be passed to remove() or removeDeferred()
+	 * @throws IllegalArgumentException if parts is empty or repeats a part, category is 0, or body_type is unknown
+	 */
+	public int addCompoundDeferred(Container<Shape>[] parts, Collider c, boolean swept, int category, int mask, int body_type){
+		return addCompoundDeferred(parts, c, swept, category, mask, body_type, LAYER_DEFAULT);
+	}
+
+	/** As addCompoundDeferred() above, with the body in the input layers (see add()) */
+	public int addCompoundDeferred(Container<Shape>[] parts, Collider c, boolean swept, int category, int mask, int body_type, int layers){
+		checkParts(parts, category, body_type, layers);
+
+		Command command = new Command(COMMAND_ADD, reserveIds(parts.length)); //the parts take consecutive ids
+		command.parts = parts.clone();
+		command.c = c;
+		command.swept = swept;
+		command.category = category;
+		command.mask = mask;
+		command.body_type = body_type;
+		command.layers = layers;
+		commands.add(command);
+		return command.handle;
+	}
+
+	/**
+	 * Removes the Shape (or compound body) with the input handle from this CollisionLayer. O(1) for a single
+	 * Shape, O(parts) for a compound body. Called from a Collider during notifyCollisions(), the Shape is only
+	 * detached once every Collider has been called, but collides with nothing more in the meantime, and
+	 * contains() is false for it at once.
+	 *
+	 * @param handle a handle returned by add() or addCompound()
+	 * @throws IllegalArgumentException if handle's Shape is not in this CollisionLayer (never added, or already removed)
+	 */
+	public void remove(int handle){
+		if (!contains(handle)){
+			throw new IllegalArgumentException("Shape is not in this CollisionLayer (handle " + handle + ")");
+		}
+
+		int id = handle & SLOT_MASK;
+		if (dispatching){
+			int[] parts = colliders[id].getParts();
+			if (parts == null){
+				colliders[id].setPendingRemoval();
+			} else {
+				for (int part : parts){
+					colliders[part].setPendingRemoval();
+				}
+			}
+			commands.add( new Command(COMMAND_REMOVE, handle) );
+			return;
+		}
+		detachBody(id);
+	}
+
+	/**
+	 * Removes s from this CollisionLayer. Prefer remove(int), with the handle returned by add().
 	 *
 	 * @param s the Shape to remove
+	 * @throws IllegalArgumentException if s is not in this CollisionLayer
 	 */
 	public void remove(Container<Shape> s){
-		//FIXME: exception for removing nonexistant Shape
+		Integer handle = handles.get(s);
+		if (handle == null){
+			throw new IllegalArgumentException("Shape is not in this CollisionLayer");
+		}
+		remove(handle.intValue());
+	}
 
-		Iterator<ShapeColliderBound> itx = bounds_x.iterator();
-		Iterator<ShapeColliderBound> ity = bounds_y.iterator();
-		while (itx.hasNext() && ity.hasNext()){
-			ShapeColliderBound scbx = itx.next();
-			ShapeColliderBound scby = ity.next();
-			if ( scbx.getShapeCollider().sameContainer(s) ){ itx.remove(); }
-			if ( scby.getShapeCollider().sameContainer(s) ){ ity.remove(); }
+	/**
+	 * Moves the Shape (or compound body) with the input handle into the input layers, replacing the ones it was
+	 * in. Nothing is re-inserted: only the bits it is paired and queried by change. Called from a Collider during
+	 * notifyCollisions(), the change is queued, like remove(); not safe from other threads.
+	 *
+	 * @param handle a handle returned by add() or addCompound()
+	 * @param layers the layer bit(s) the body belongs to from now on
+	 * @throws IllegalArgumentException if handle's Shape is not in this CollisionLayer, or layers is 0
+	 */
+	public void setLayers(int handle, int layers){
+		checkLayers(layers);
+		if (!contains(handle)){
+			throw new IllegalArgumentException("Shape is not in this CollisionLayer (handle " + handle + ")");
 		}
 
-		//same number of bounds in each list
-		assert (!itx.hasNext()) && (!ity.hasNext());		
+		if (dispatching){
+			Command command = new Command(COMMAND_SET_LAYERS, handle);
+			command.layers = layers;
+			commands.add(command);
+			return;
+		}
+		applyLayers(handle & SLOT_MASK, layers);
+	}
 
+	/**
+	 * Returns the layers of the Shape (or compound body) with the input handle; a change queued by setLayers()
+	 * only shows once it is applied.
+	 *
+	 * @throws IllegalArgumentException if handle's Shape is not in this CollisionLayer
+	 */
+	public int getLayers(int handle){
+		if (!contains(handle)){
+			throw new IllegalArgumentException("Shape is not in this CollisionLayer (handle " + handle + ")");
+		}
+		return colliders[handle & SLOT_MASK].getLayers();
+	}
+
+	/** Sets the layers of every part of the body owned by id */
+	private void applyLayers(int id, int layers){
+		int[] parts = colliders[id].getParts();
+		if (parts == null){
+			applyPartLayers(id, layers);
+		} else {
+			for (int part : parts){
+				applyPartLayers(part, layers);
+			}
+		}
+	}
+
+	/** Sets the layers of the single Shape id, in its ShapeCollider and its snapshot */
+	private void applyPartLayers(int id, int layers){
+		ShapeCollider sc = colliders[id];
+		sc.setLayers(layers);
+		if (sc.getBodyType() == BODY_STATIC){
+			static_bounds.layers[id] = layers;
+		} else {
+			bounds.layers[id] = layers;
+		}
+	}
+
+	/**
+	 * Queues the Shape (or compound body) with the input handle to be removed by the next flushCommands(). Safe
+	 * to call from any thread; until the removal is applied, the Shape still collides as usual.
+	 *
+	 * @param handle a handle returned by add(), addDeferred() etc.; if its Shape is not in this CollisionLayer by
+	 *               then, flushCommands() throws IllegalArgumentException
+	 */
+	public void removeDeferred(int handle){
+		commands.add( new Command(COMMAND_REMOVE, handle) );
+	}
+
+	/**
+	 * Applies every queued add, remove and setLayers() (see addDeferred() and removeDeferred()), in the order
+	 * they were queued. notifyCollisions() and notifyContacts() call this first, and notifyCollisions() again once it has
+	 * called every Collider; call it directly to have queued Shapes in place for a query.
+	 *
+	 * @throws IllegalArgumentException if a queued command is invalid (see add() and remove()); the commands
+	 *         after it stay queued
+	 * @throws IllegalStateException if called by a Collider during notifyCollisions()
+	 */
+	public void flushCommands(){
+		if (dispatching){
+			throw new IllegalStateException("cannot flush commands while Colliders are being called");
+		}
+
+		Command command;
+		while ((command = commands.poll()) != null){
+			int id = command.handle & SLOT_MASK;
+			if (command.type != COMMAND_ADD && !isPresent(command.handle)){
+				throw new IllegalArgumentException("Shape is not in this CollisionLayer (handle " + command.handle + ")");
+			}
+
+			if (command.type == COMMAND_REMOVE){
+				detachBody(id);
+			} else if (command.type == COMMAND_SET_LAYERS){
+				applyLayers(id, command.layers);
+			} else if (command.parts == null){
+				checkAdd(command.s, command.category, command.body_type, command.layers);
+				ensureIdCapacity(id);
+				attachShape(command.s, command.c, command.swept, command.category, command.mask, command.body_type, command.layers, id);
+			} else {
+				int[] part_ids = new int[command.parts.length];
+				for (int k = 0; k < part_ids.length; k++){
+					checkAdd(command.parts[k], command.category, command.body_type, command.layers);
+					part_ids[k] = id + k;
+				}
+				ensureIdCapacity(id + part_ids.length - 1);
+				attachCompound(command.parts, command.c, command.swept, command.category, command.mask, command.body_type, command.layers, part_ids);
+			}
+		}
+	}
+
+	/** Returns true if the Shape with the input handle is currently in this CollisionLayer */
+	public boolean contains(int handle){
+		return isPresent(handle) && !colliders[handle & SLOT_MASK].isPendingRemoval();
+	}
+
+	/** Returns true if the Shape with the input handle is attached, even if its removal is queued */
+	private boolean isPresent(int handle){
+		int id = handle & SLOT_MASK;
+		return handle >= 0 && id < colliders.length
+			&& colliders[id] != null && colliders[id].getOwner() == id
+			&& generations[id] == (handle >>> SLOT_BITS);
+	}
+
+	/** Throws IllegalArgumentException if s cannot be added with the input category, body type and layers */
+	private void checkAdd(Container<Shape> s, int category, int body_type, int layers){
+		checkFilter(category, body_type, layers);
+		if (handles.containsKey(s)){
+			throw new IllegalArgumentException("Shape is already in this CollisionLayer");
+		}
+	}
+
+	/** Throws IllegalArgumentException if category, body_type or layers is invalid; reads no state, so safe on any thread */
+	private static void checkFilter(int category, int body_type, int layers){
+		if (body_type != BODY_STATIC && body_type != BODY_KINEMATIC && body_type != BODY_DYNAMIC){
+			throw new IllegalArgumentException("unknown body type: " + body_type);
+		}
+		if (category == 0){
+			throw new IllegalArgumentException("category must have at least one bit set");
+		}
+		checkLayers(layers);
+	}
+
+	/** Throws IllegalArgumentException if layers is 0 */
+	private static void checkLayers(int layers){
+		if (layers == 0){
+			throw new IllegalArgumentException("a Shape must be in at least one layer");
+		}
+	}
+
+	/** Throws IllegalArgumentException if parts cannot make a compound body; reads no state, so safe on any thread */
+	private static void checkParts(Container<Shape>[] parts, int category, int body_type, int layers){
+		if (parts.length == 0){
+			throw new IllegalArgumentException("a compound body needs at least one part");
+		}
+		checkFilter(category, body_type, layers);
+		for (int k = 0; k < parts.length; k++){
+			for (int j = 0; j < k; j++){
+				if (parts[j] == parts[k]){
+					throw new IllegalArgumentException("a compound body cannot repeat a part");
+				}
+			}
+		}
+	}
+
+	/** Returns an unused id (slot), growing every per-id array if needed */
+	private int allocateId(){
+		if (free_count > 0){
+			return free_ids[--free_count];
+		}
+		int id = reserveIds(1);
+		ensureIdCapacity(id);
+		return id;
+	}
+
+	/**
+	 * Takes count never-used, consecutive ids, and returns the first; safe on any thread. A never-used slot's
+	 * generation is 0, so the first id is also its body's handle. The per-id arrays are grown when the ids are
+	 * attached (see ensureIdCapacity()).
+	 */
+	private int reserveIds(int count){
+		int id = next_id.getAndAdd(count);
+		if (id + count - 1 > SLOT_MASK){
+			throw new IllegalStateException("CollisionLayer is full (" + (id + count) + " Shapes)");
+		}
+		return id;
+	}
+
+	/** Grows every per-id array to hold id */
+	private void ensureIdCapacity(int id){
+		if (id < colliders.length){
+			return;
+		}
+		int capacity = Math.max(colliders.length * 2, id + 1);
+		colliders = Arrays.copyOf(colliders, capacity);
+		generations = Arrays.copyOf(generations, capacity);
+		contact_colliders = Arrays.copyOf(contact_colliders, capacity);
+		query_marks = Arrays.copyOf(query_marks, capacity);
+		free_ids = Arrays.copyOf(free_ids, capacity);
+		removed_ids = Arrays.copyOf(removed_ids, capacity);
+	}
+
+	/** Attaches a single Shape under the input id, and returns its handle */
+	private int attachShape(Container<Shape> s, Collider c, boolean swept, int category, int mask, int body_type, int layers, int id){
+		attach( new ShapeCollider(s, c, id, id, swept && body_type != BODY_STATIC, body_type, category, mask, layers) );
+
+		int handle = (generations[id] << SLOT_BITS) | id;
+		handles.put(s, handle);
+		return handle;
+	}
+
+	/** Attaches a compound body's parts under the input ids, the first of which owns the body, and returns its handle */
+	private int attachCompound(Container<Shape>[] parts, Collider c, boolean swept, int category, int mask, int body_type, int layers, int[] part_ids){
+		int owner = part_ids[0];
+		for (int k = 0; k < parts.length; k++){
+			attach( new ShapeCollider(parts[k], c, part_ids[k], owner, swept && body_type != BODY_STATIC, body_type, category, mask, layers) );
+		}
+		colliders[owner].setParts(part_ids);
+		compound_count++;
+
+		int handle = (generations[owner] << SLOT_BITS) | owner;
+		for (Container<Shape> part : parts){
+			handles.put(part, handle);
+		}
+		return handle;
+	}
+	/** Stores sc under its id, and hands its bounding box to the static or moving Broadphase */
+	private void attach(ShapeCollider sc){
+		int id = sc.getId();
+		Shape shape = sc.getShape();
+		colliders[id] = sc;
+		contact_colliders[id] = sc.getCollider();
+		if (sc.getBodyType() == BODY_STATIC){
+			sc.updateTravel(); //never reclassified or re-measured by notifyCollisions()
+			static_bounds.add(id, shape, sc.getCategory(), sc.getMask(), sc.getLayers());
+			static_index.add(id, static_bounds);
+		} else {
+			bounds.add(id, shape, sc.getCategory(), sc.getMask(), sc.getLayers());
+			broadphase.add(id, bounds);
+		}
+	}
+
+	/** Detaches every part of the body owned by id */
+	private void detachBody(int id){
+		int[] parts = colliders[id].getParts();
+		if (parts == null){
+			detach(id);
+		} else {
+			for (int part : parts){
+				detach(part);
+			}
+			compound_count--;
+		}
+	}
+
+	/** Undoes attach(); the id becomes reusable after the next findPairs() */
+	private void detach(int id){
+		handles.remove(colliders[id].s);
+		if (colliders[id].getBodyType() == BODY_STATIC){
+			static_index.remove(id);
+			static_bounds.remove(id);
+		} else {
+			broadphase.remove(id);
+			bounds.remove(id);
+		}
+		colliders[id] = null;
+		generations[id] = (generations[id] == MAX_GENERATION) ? 0 : generations[id] + 1;
+		removed_ids[removed_count++] = id;
 	}
 
 	/**
@@ -195,62 +1034,652 @@ public class CollisionLayer{
 	 * Collisions only happen once; "A collides B" and "B collides A" will NOT
 	 * be detected as separate collisions.
 	 */
-	@SuppressWarnings("unchecked")
 	public void notifyCollisions(){
-		Collections.sort(bounds_x);
-		Collections.sort(bounds_y);
 
-		HashSet<ShapeCollider> active_sc = new HashSet<ShapeCollider>();
-		HashMap<ShapeCollider, HashSet<ShapeCollider>> collisions_x = new HashMap<ShapeCollider, HashSet<ShapeCollider>>();
+		flushCommands();
+		findCandidatePairs();
 
-		for ( ShapeColliderBound xscb : bounds_x ){
+		//the broadphase has now seen every removal so far, so those ids are safe to reuse
+		releaseRemovedIds();
 
-			ShapeCollider xsc = xscb.getShapeCollider();
-			if ( active_sc.contains( xsc ) ){
-				active_sc.remove( xsc );
+		long time = (stats != null) ? System.nanoTime() : 0L;
+		int touching;
+		body_pairs.clear();
+		dispatching = true;
+		try {
+			if (pool != null && pairs.size() >= PARALLEL_MIN_PAIRS){
+				touching = collideParallel();
 			} else {
-				collisions_x.put( xsc, (HashSet<ShapeCollider>)active_sc.clone() );
-				active_sc.add( xsc );
+				touching = collideSerial();
+			}
+		} finally {
+			dispatching = false;
+		}
+		if (stats != null){
+			stats.narrowphase_ns = System.nanoTime() - time;
+			stats.contacts = touching;
+		}
+
+		//whatever the Colliders added or removed
+		flushCommands();
+
+	}
+
+	/** Tests every pair and calls the Colliders of each contact as it is found; returns the number of contacts */
+	private int collideSerial(){
+		int touching = 0;
+		for (int i = 0; i < pairs.size(); i++){
+			ShapeCollider a = colliders[pairs.getA(i)];
+			ShapeCollider b = colliders[pairs.getB(i)];
+			//a Collider may have removed either Shape earlier in this loop
+			pair_gaps[i] = 0f;
+			if (isLive(a) && isLive(b) && a.getOwner() != b.getOwner()){
+				float toi = cached_contacts[i] ? 1f : a.test(b);
+				if (pair_caching && !cached_contacts[i]){
+					pair_gaps[i] = a.measureGap(b, toi != NO_CONTACT);
+				}
+				if (toi != NO_CONTACT){
+					touching++;
+					if (firstContactThisFrame(a, b)){
+						a.dispatch(b, toi);
+					}
+				}
+			}
+		}
+		cacheGaps();
+		return touching;
+	}
+
+	/**
+	 * Appends this frame's contact events to events, without calling any Colliders. A pair which started
+	 * touching since the last call is reported as BEGIN, one which is still touching as PERSIST, and one which
+	 * stopped touching (or lost a Shape to remove()) as END. BEGIN and PERSIST events come in the broadphase's
+	 * pair order, followed by every END event.
+	 *
+	 * @param events the buffer to append to; it is not cleared first
+	 */
+	public void notifyContacts(ContactEvents events){
+
+		flushCommands();
+		findCandidatePairs();
+		long time = (stats != null) ? System.nanoTime() : 0L;
+		int chunk_count = testPairs();
+		cacheGaps();
+		if (stats != null){
+			stats.narrowphase_ns = System.nanoTime() - time;
+			stats.contacts = countContacts(chunk_count);
+		}
+
+		//this frame's contacts begin, or persist from the last frame
+		current_contacts.clear();
+		for (int chunk = 0; chunk < chunk_count; chunk++){
+			int start = chunk * PARALLEL_CHUNK_SIZE;
+			for (int k = start; k < start + chunk_counts[chunk]; k++){
+				int a = colliders[pairs.getA(contacts[k])].getOwner();
+				int b = colliders[pairs.getB(contacts[k])].getOwner();
+				if (!current_contacts.add(a, b)){
+					continue; //another part of the same two bodies already touched
+				}
+
+				boolean swept = colliders[a].isSwept() || colliders[b].isSwept();
+				events.add(
+					active_contacts.contains(a, b) ? ContactEvents.PERSIST : ContactEvents.BEGIN,
+					colliders[a].getCollider(), colliders[b].getCollider(),
+					swept ? contact_tois[k] : Narrowphase.NO_IMPACT
+					);
 			}
+		}
 
+		//the last frame's contacts which are gone end
+		for (int slot = 0; slot < active_contacts.capacity(); slot++){
+			long key = active_contacts.keyAt(slot);
+			if (key != PairSet.EMPTY){
+				int a = PairSet.lowerId(key);
+				int b = PairSet.upperId(key);
+				if (!current_contacts.contains(a, b)){
+					events.add(ContactEvents.END, contact_colliders[a], contact_colliders[b], Narrowphase.NO_IMPACT);
+				}
+			}
 		}
-		
-		//every ShapeCollider should have an even number of bounds (specifically, 2 x bounds)
-		assert active_sc.isEmpty(); 
 
-		for ( ShapeColliderBound yscb : bounds_y ){
+		PairSet t = active_contacts;
+		active_contacts = current_contacts;
+		current_contacts = t;
+
+		//only now, with every END reported, are removed ids safe to reuse
+		releaseRemovedIds();
+
+	}
+
+	/** Snapshots every bounding box, and fills pairs from the broadphase */
+	private void findCandidatePairs(){
+		long time = (stats != null) ? System.nanoTime() : 0L;
+
+		//snapshot every bounding box; a swept Shape's box covers its whole path since the last frame
+		for (int i = 0; i < bounds.getCount(); i++){
+			int id = bounds.getId(i);
+			ShapeCollider sc = colliders[id];
+			bounds.set(id, sc.getShape());
+			sc.getKind(); //classify here, so the narrowphase only ever reads ShapeColliders
+			if (pair_caching){
+				sc.updateTravel();
+			}
+			sc.updateMotion();
+			if (sc.isSwept()){
+				bounds.sweep(id, sc.getMotionX(), sc.getMotionY());
+			}
+		}
+
+		if (stats != null){
+			long now = System.nanoTime();
+			stats.update_ns = now - time;
+			time = now;
+		}
+
+		pairs.clear();
+		broadphase.findPairs(bounds, pairs);
+
+		//dynamic Shapes against static ones
+		if (static_bounds.getCount() > 0){
+			for (int i = 0; i < bounds.getCount(); i++){
+				int id = bounds.getId(i);
+				if (colliders[id].getBodyType() == BODY_DYNAMIC){
+					static_query_id = id;
+					static_index.query(static_bounds, bounds.min_x[id], bounds.min_y[id], bounds.max_x[id], bounds.max_y[id], static_pair_query);
+				}
+			}
+		}
+
+		if (pair_gaps.length < pairs.size()){
+			pair_gaps = new float[pairs.size() * 2];
+			cached_contacts = new boolean[pairs.size() * 2];
+		}
+		Arrays.fill(cached_contacts, 0, pairs.size(), false);
+		cached_pair_count = 0;
+		int candidate_count = pairs.size();
+		if (pair_caching){
+			prunePairs();
+		}
+
+		if (stats != null){
+			stats.broadphase_ns = System.nanoTime() - time;
+			recordCounts(candidate_count);
+		}
+
+	}
+
+	/** Records this frame's counts up to the narrowphase; candidate_count is the number of pairs before prunePairs() */
+	private void recordCounts(int candidate_count){
+		//prunePairs() drops the cached pairs which are apart, and keeps (but does not test) the ones touching
+		int cached_touching = cached_pair_count - (candidate_count - pairs.size());
+
+		stats.shapes = bounds.getCount() + static_bounds.getCount();
+		stats.static_shapes = static_bounds.getCount();
+		stats.sort_swaps = (broadphase instanceof Broadphase.SortCounter) ? ((Broadphase.SortCounter)broadphase).getSwapCount() : 0;
+		stats.candidate_pairs = candidate_count;
+		stats.cached_pairs = cached_pair_count;
+		stats.narrowphase_tests = pairs.size() - cached_touching;
+		stats.frames++;
+	}
+
+	/**
+	 * Skips the narrowphase for every candidate pair whose cached result is provably still right: the pair is
+	 * dropped if it was apart, or marked in cached_contacts if it touched. A pair found apart by gap g (or
+	 * overlapping by g) cannot have changed until the two Shapes have travelled g between them. Entries for pairs
+	 * no longer among the candidates are dropped. The remaining pairs keep their order.
+	 */
+	private void prunePairs(){
+		next_pair_cache.clear();
+		int kept = 0;
+		for (int i = 0; i < pairs.size(); i++){
+			int a = pairs.getA(i), b = pairs.getB(i);
+			boolean touching = false;
+			int slot = colliders[a].canCache(colliders[b]) ? pair_cache.find(a, b) : PairCache.NOT_FOUND;
+			if (slot != PairCache.NOT_FOUND){
+				float gap = pair_cache.getGap(slot);
+				double travel_a = pair_cache.getTravel(slot, a), travel_b = pair_cache.getTravel(slot, b);
+				double moved = (colliders[a].getTravel() - travel_a) + (colliders[b].getTravel() - travel_b);
+				if (moved + CACHE_SLOP < Math.abs(gap)){
+					next_pair_cache.put(a, b, gap, travel_a, travel_b);
+					cached_pair_count++;
+					if (gap > 0f){
+						continue;
+					}
+					touching = true;
+				}
+			}
+			pairs.set(kept, a, b);
+			cached_contacts[kept++] = touching;
+		}
+		pairs.truncate(kept);
+
+		PairCache t = pair_cache;
+		pair_cache = next_pair_cache;
+		next_pair_cache = t;
+	}
+
+	/** Caches every result the narrowphase measured a useful gap for (see prunePairs()) */
+	private void cacheGaps(){
+		if (!pair_caching){
+			return;
+		}
+		for (int i = 0; i < pairs.size(); i++){
+			if (Math.abs(pair_gaps[i]) > CACHE_SLOP){
+				ShapeCollider a = colliders[pairs.getA(i)];
+				ShapeCollider b = colliders[pairs.getB(i)];
+				//a Collider may have removed either Shape since the pair was tested
+				if (isLive(a) && isLive(b)){
+					pair_cache.put(a.getId(), b.getId(), pair_gaps[i], a.getTravel(), b.getTravel());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Enables or disables the pair cache (on by default), which skips the narrowphase for pairs which cannot
+	 * have started or stopped touching since they were last tested. Colliders are called the same either way.
+	 *
+	 * @param pair_caching true to cache narrowphase results between frames
+	 */
+	public void setPairCaching(boolean pair_caching){
+		this.pair_caching = pair_caching;
+		if (!pair_caching){
+			pair_cache.clear();
+			next_pair_cache.clear();
+		}
+	}
+	public boolean isPairCaching(){ return pair_caching; }
 
-			ShapeCollider ysc = yscb.getShapeCollider();
-			if ( active_sc.contains(ysc) ){
-				active_sc.remove( ysc );
+	/**
+	 * Enables or disables the parallel narrowphase. When enabled, frames with many candidate pairs are tested
+	 * on a ForkJoinPool; Colliders are still called on the thread calling notifyCollisions(), in the same
+	 * order as in serial mode.
+	 *
+	 * @param parallel true to test pairs on several threads
+	 */
+	public void setParallel(boolean parallel){
+		if (parallel && pool == null){
+			pool = new ForkJoinPool();
+		} else if (!parallel && pool != null){
+			pool.shutdown();
+			pool = null;
+		}
+	}
+	public boolean isParallel(){ return pool != null; }
+
+	/**
+	 * Starts or stops recording per-frame statistics (off by default). While off, notifyCollisions() and
+	 * notifyContacts() neither time nor count anything, so this can be left compiled in.
+	 *
+	 * @param recording true to record statistics from the next frame on
+	 */
+	public void setRecordingStats(boolean recording){
+		if (recording && stats == null){
+			stats = new CollisionStats();
+		} else if (!recording){
+			stats = null;
+		}
+	}
+	public boolean isRecordingStats(){ return stats != null; }
+
+	/**
+	 * Copies the statistics of the last notifyCollisions() or notifyContacts() into out; every field is 0 if
+	 * statistics are not being recorded.
+	 *
+	 * @param out receives the statistics; reuse one instance to avoid allocating
+	 */
+	public void getStats(CollisionStats out){
+		if (stats == null){
+			out.clear();
+		} else {
+			out.set(stats);
+		}
+	}
+
+	/** Returns true if sc is attached, and not queued for removal by a Collider earlier in this frame */
+	private static boolean isLive(ShapeCollider sc){
+		return sc != null && !sc.isPendingRemoval();
+	}
+
+	/** Returns false if the bodies of a and b already collided this frame (possible only for compound bodies) */
+	private boolean firstContactThisFrame(ShapeCollider a, ShapeCollider b){
+		return compound_count == 0 || body_pairs.add(a.getOwner(), b.getOwner());
+	}
+
+	/** Moves ids removed before the last findPairs() onto the free list */
+	private void releaseRemovedIds(){
+		while (removed_count > 0){
+			free_ids[free_count++] = removed_ids[--removed_count];
+		}
+	}
+
+	//-----------------------
+	//--| Spatial Queries |--
+	//-----------------------
+
+	/** The result of raycast(); reuse one instance to avoid allocating */
+	public static class RayHit{
+
+		/** The Collider of the first Shape hit */
+		public Collider collider;
+
+		/** How far along the ray the hit is, from 0 (start) to 1 (end) */
+		public float fraction;
+
+		/** Where the ray first touched the Shape */
+		public float x;
+		public float y;
+
+	}
+
+	/**
+	 * Finds the Colliders whose Shapes' bounding boxes overlap the input box. Shapes are found where they were
+	 * at the last notifyCollisions() (or notifyContacts(), or their add()), which is at most a frame out of date;
+	 * queryRadius() and raycast() likewise. Never allocates.
+	 *
+	 * @param mask only Shapes whose category is in mask are found (see CATEGORY_*)
+	 * @param out  receives the Colliders found; the query stops once it is full
+	 * @return the number of Colliders written to out
+	 */
+	public int queryAABB(float min_x, float min_y, float max_x, float max_y, int mask, Collider[] out){
+		return queryAABB(min_x, min_y, max_x, max_y, mask, LAYERS_ALL, out);
+	}
+
+	/** As queryAABB() above, finding only Shapes in at least one of the input layers */
+	public int queryAABB(float min_x, float min_y, float max_x, float max_y, int mask, int layers, Collider[] out){
+		if (out.length == 0){
+			return 0;
+		}
+		query_mask = mask;
+		query_layers = layers;
+		query_out = out;
+		query_count = 0;
+		nextQueryStamp();
+		broadphase.query(bounds, min_x, min_y, max_x, max_y, aabb_query);
+		if (query_count < out.length){
+			static_index.query(static_bounds, min_x, min_y, max_x, max_y, aabb_query);
+		}
+		query_out = null;
+		return query_count;
+	}
+
+	/**
+	 * Finds the Colliders whose Shapes touch the circle of radius r about (cx, cy).
+	 *
+	 * @param mask only Shapes whose category is in mask are found (see CATEGORY_*)
+	 * @param out  receives the Colliders found; the query stops once it is full
+	 * @return the number of Colliders written to out
+	 */
+	public int queryRadius(float cx, float cy, float r, int mask, Collider[] out){
+		return queryRadius(cx, cy, r, mask, LAYERS_ALL, out);
+	}
+
+	/** As queryRadius() above, finding only Shapes in at least one of the input layers */
+	public int queryRadius(float cx, float cy, float r, int mask, int layers, Collider[] out){
+		if (out.length == 0){
+			return 0;
+		}
+		query_mask = mask;
+		query_layers = layers;
+		query_out = out;
+		query_count = 0;
+		nextQueryStamp();
+		query_x = cx;
+		query_y = cy;
+		query_dx = r;
+		broadphase.query(bounds, cx - r, cy - r, cx + r, cy + r, radius_query);
+		if (query_count < out.length){
+			static_index.query(static_bounds, cx - r, cy - r, cx + r, cy + r, radius_query);
+		}
+		query_out = null;
+		return query_count;
+	}
+
+	/** Starts a new query, so that no body counts as reported yet */
+	private void nextQueryStamp(){
+		if (++query_stamp == 0){
+			Arrays.fill(query_marks, 0);
+			query_stamp = 1;
+		}
+	}
+
+	/**
+	 * Finds the first Shape touched by the line segment from (x0, y0) to (x1, y1). The segment is checked a
+	 * step at a time, so a short hit on a long ray only queries the Broadphase near the start.
+	 *
+	 * @param mask only Shapes whose category is in mask are found (see CATEGORY_*)
+	 * @param hit  receives the first hit, if there is one; left unchanged otherwise
+	 * @return true if the segment hit a Shape
+	 */
+	public boolean raycast(float x0, float y0, float x1, float y1, int mask, RayHit hit){
+		return raycast(x0, y0, x1, y1, mask, LAYERS_ALL, hit);
+	}
+
+	/** As raycast() above, hitting only Shapes in at least one of the input layers */
+	public boolean raycast(float x0, float y0, float x1, float y1, int mask, int layers, RayHit hit){
+		float dx = x1 - x0, dy = y1 - y0;
+		float length = (float)Math.sqrt(dx*dx + dy*dy);
+		int steps = Math.max(1, (int)Math.ceil(length / RAY_STEP));
+
+		query_mask = mask;
+		query_layers = layers;
+		query_x = x0;
+		query_y = y0;
+		query_dx = dx;
+		query_dy = dy;
+		ray_best_id = -1;
+
+		//any Shape touched within step k overlaps step k's box, so once a hit lands within the steps checked so
+		//far, no later step can beat it
+		for (int k = 0; k < steps; k++){
+			float t0 = (float)k / steps, t1 = (float)(k + 1) / steps;
+			float sx0 = x0 + t0*dx, sy0 = y0 + t0*dy;
+			float sx1 = x0 + t1*dx, sy1 = y0 + t1*dy;
+			float box_x0 = Math.min(sx0, sx1), box_y0 = Math.min(sy0, sy1);
+			float box_x1 = Math.max(sx0, sx1), box_y1 = Math.max(sy0, sy1);
+			broadphase.query(bounds, box_x0, box_y0, box_x1, box_y1, ray_query);
+			static_index.query(static_bounds, box_x0, box_y0, box_x1, box_y1, ray_query);
+			if (ray_best_id >= 0 && ray_best <= t1){
+				break;
+			}
+		}
+
+		if (ray_best_id < 0){
+			return false;
+		}
+		hit.collider = colliders[ray_best_id].getCollider();
+		hit.fraction = ray_best;
+		hit.x = x0 + ray_best*dx;
+		hit.y = y0 + ray_best*dy;
+		return true;
+	}
+
+	//-------------------
+	//--| Narrowphase |--
+	//-------------------
+
+	//Tests the pairs in chunks [first_chunk, last_chunk), splitting in half until one chunk is left
+	private class NarrowphaseTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		private int first_chunk;
+		private int last_chunk;
+
+		public NarrowphaseTask(int first_chunk, int last_chunk){
+			this.first_chunk = first_chunk;
+			this.last_chunk = last_chunk;
+		}
+
+		@Override
+		protected void compute(){
+			if (last_chunk - first_chunk == 1){
+				testChunk(first_chunk);
 			} else {
-				for( ShapeCollider asc : active_sc ){
+				int mid = (first_chunk + last_chunk) >>> 1;
+				invokeAll( new NarrowphaseTask(first_chunk, mid), new NarrowphaseTask(mid, last_chunk) );
+			}
+		}
+
+	}
+
+	/** Tests every pair on pool, then calls the Colliders of each contact in pair order; returns the number of contacts */
+	private int collideParallel(){
+		int chunk_count = testPairs();
+		cacheGaps();
 
-					if (   collisions_x.get(asc).contains(ysc)
-						|| collisions_x.get(ysc).contains(asc)
-						){
-						asc.collide(ysc);
+		//merge: chunks in order, contacts within a chunk in order
+		int touching = 0;
+		for (int chunk = 0; chunk < chunk_count; chunk++){
+			int start = chunk * PARALLEL_CHUNK_SIZE;
+			for (int k = start; k < start + chunk_counts[chunk]; k++){
+				int i = contacts[k];
+				ShapeCollider a = colliders[pairs.getA(i)];
+				ShapeCollider b = colliders[pairs.getB(i)];
+				//a Collider may have removed either Shape earlier in this loop
+				if (isLive(a) && isLive(b)){
+					touching++;
+					if (firstContactThisFrame(a, b)){
+						a.dispatch(b, contact_tois[k]);
 					}
 				}
-				active_sc.add( ysc );
 			}
+		}
+		return touching;
+	}
 
+	/** Returns the number of contacts testPairs() found in its chunk_count chunks */
+	private int countContacts(int chunk_count){
+		int touching = 0;
+		for (int chunk = 0; chunk < chunk_count; chunk++){
+			touching += chunk_counts[chunk];
 		}
+		return touching;
+	}
 
-		//every ShapeCollider should have an even number of bounds (specifically, 2 y bounds)
-		assert active_sc.isEmpty();
-		
+	/**
+	 * Tests every pair, on pool if the parallel narrowphase is enabled and there are enough pairs, and
+	 * returns the number of chunks whose contacts are now in contacts/contact_tois/chunk_counts
+	 */
+	private int testPairs(){
+		int pair_count = pairs.size();
+		int chunk_count = (pair_count + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+		if (contacts.length < pair_count){
+			contacts = new int[pair_count * 2];
+			contact_tois = new float[pair_count * 2];
+		}
+		if (chunk_counts.length < chunk_count){
+			chunk_counts = new int[chunk_count * 2];
+		}
 
+		if (pool != null && pair_count >= PARALLEL_MIN_PAIRS){
+			pool.invoke( new NarrowphaseTask(0, chunk_count) );
+		} else {
+			for (int chunk = 0; chunk < chunk_count; chunk++){
+				testChunk(chunk);
+			}
+		}
+		return chunk_count;
+	}
+
+	/** Tests the pairs of one chunk, recording its contacts in that chunk's part of contacts */
+	private void testChunk(int chunk){
+		int start = chunk * PARALLEL_CHUNK_SIZE;
+		int end = Math.min(start + PARALLEL_CHUNK_SIZE, pairs.size());
+		int n = start;
+		for (int i = start; i < end; i++){
+			ShapeCollider a = colliders[pairs.getA(i)];
+			ShapeCollider b = colliders[pairs.getB(i)];
+			pair_gaps[i] = 0f;
+			if (a.getOwner() == b.getOwner()){
+				continue; //two parts of one compound body
+			}
+			float toi = cached_contacts[i] ? 1f : a.test(b);
+			if (pair_caching && !cached_contacts[i]){
+				pair_gaps[i] = a.measureGap(b, toi != NO_CONTACT);
+			}
+			if (toi != NO_CONTACT){
+				contacts[n] = i;
+				contact_tois[n] = toi;
+				n++;
+			}
+		}
+		chunk_counts[chunk] = n - start;
 	}
 
 	//--------------------------
 	//--| Test/Debug Methods |--
 	//--------------------------
 
-	/** Sandbox driver */
+	/**
+	 * Sandbox driver: runs a dense, slowly drifting and spinning scene of circles and triangles, posed as the game
+	 * poses its bodies (see CollisionImage.setPose()), serially, in parallel, and serially without the pair cache;
+	 * checks that the Colliders are called in the same order all three ways, and prints the time per frame of
+	 * each (after a discarded warm-up pass), with how many pairs per frame the pair cache skipped (from
+	 * CollisionStats).
+	 */
 	public static void main(String[] args){
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 4000;
+		int frames = 100;
+		String[] names = { "serial  ", "parallel", "uncached" };
+
+		final StringBuilder[] logs = { new StringBuilder(), new StringBuilder(), new StringBuilder() };
+		CollisionStats stats = new CollisionStats();
+		for (int pass = 0; pass < 2; pass++){ //the first pass warms up
+			for (int run = 0; run < 3; run++){
+				final StringBuilder log = logs[run];
+				log.setLength(0);
+				CollisionLayer cl = new CollisionLayer( new SpatialHashGrid() );
+				cl.setParallel(run == 1);
+				cl.setPairCaching(run != 2);
+				cl.setRecordingStats(true);
 
+				java.util.Random rand = new java.util.Random(1);
+				CollisionImage[] images = new CollisionImage[n];
+				float[] poses = new float[3*n];
+				float[] velocities = new float[3*n];
+				for (int i = 0; i < n; i++){
+					final int who = i;
+					Shape shape = (i % 2 == 0)
+						? new org.newdawn.slick.geom.Circle(0f, 0f, 12f)
+						: new org.newdawn.slick.geom.Polygon(new float[]{ 0f, 9f, 7f, -7f, -7f, -7f });
+					images[i] = new CollisionImage(shape, new Collider(){
+						@Override
+						public void collide(Collider c){ log.append(who).append(' '); }
+					});
+					poses[3*i] = rand.nextFloat() * 1500f;
+					poses[3*i + 1] = rand.nextFloat() * 1500f;
+					poses[3*i + 2] = rand.nextFloat() * 6.28f;
+					velocities[3*i] = rand.nextFloat() * 2f - 1f;
+					velocities[3*i + 1] = rand.nextFloat() * 2f - 1f;
+					velocities[3*i + 2] = rand.nextFloat() * .1f - .05f;
+					images[i].setPose(poses[3*i], poses[3*i + 1], poses[3*i + 2]);
+					images[i].addTo(cl);
+				}
+
+				long skipped = 0;
+				long start = System.nanoTime();
+				for (int f = 0; f < frames; f++){
+					for (int k = 0; k < 3*n; k++){
+						poses[k] += velocities[k];
+					}
+					for (int i = 0; i < n; i++){
+						images[i].setPose(poses[3*i], poses[3*i + 1], poses[3*i + 2]);
+					}
+					cl.notifyCollisions();
+					cl.getStats(stats);
+					skipped += stats.cached_pairs;
+				}
+				long elapsed = System.nanoTime() - start;
+				cl.setParallel(false);
+
+				if (pass == 1){
+					System.out.println( names[run] + ": " + (elapsed / frames / 1000) + " us/frame, " + (skipped / frames) + " pairs/frame skipped by the pair cache" );
+				}
+			}
+		}
 
+		System.out.println( "same dispatch order: " + (logs[0].toString().equals(logs[1].toString()) && logs[0].toString().equals(logs[2].toString())) );
 	}
 
 }
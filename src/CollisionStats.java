@@ -0,0 +1,96 @@
+/**
+ * CollisionStats.java
+ *
+ * What one frame of a CollisionLayer cost: how many Shapes it held, how much work each phase did, and how
+ * long each phase took. A CollisionLayer only records these while setRecordingStats(true) is on; getStats()
+ * copies the last frame's into a caller-supplied instance, so reading them every frame allocates nothing.
+ *
+ * The fields are public, like RayHit's; only CollisionLayer writes to them.
+ *
+ * Author: Wesley Gydé
+ */
+
+public class CollisionStats{
+
+	/** Shapes in the CollisionLayer (each part of a compound body counts), of which static */
+	public int shapes;
+	public int static_shapes;
+
+	/** Swaps made by the Broadphase's incremental sort; 0 unless it is a Broadphase.SortCounter */
+	public int sort_swaps;
+
+	/** Pairs whose bounding boxes overlap, as found by the Broadphase (and the static index) */
+	public int candidate_pairs;
+
+	/** Candidate pairs the pair cache answered without a test (see CollisionLayer.setPairCaching()) */
+	public int cached_pairs;
+
+	/** Candidate pairs given a precision test */
+	public int narrowphase_tests;
+
+	/** Pairs found touching, whether tested or cached */
+	public int contacts;
+
+	/** Nanoseconds spent refreshing bounding boxes, finding candidate pairs, and testing them */
+	public long update_ns;
+	public long broadphase_ns;
+	public long narrowphase_ns; //in notifyCollisions(), includes calling the Colliders
+
+	/** Frames recorded since stats were turned on */
+	public long frames;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public CollisionStats(){
+		clear();
+	}
+
+	//---------------
+	//--| Methods |--
+	//---------------
+
+	/** Zeroes every field */
+	public void clear(){
+		shapes = 0;
+		static_shapes = 0;
+		sort_swaps = 0;
+		candidate_pairs = 0;
+		cached_pairs = 0;
+		narrowphase_tests = 0;
+		contacts = 0;
+		update_ns = 0L;
+		broadphase_ns = 0L;
+		narrowphase_ns = 0L;
+		frames = 0L;
+	}
+
+	/** Copies every field of other into this */
+	public void set(CollisionStats other){
+		shapes = other.shapes;
+		static_shapes = other.static_shapes;
+		sort_swaps = other.sort_swaps;
+		candidate_pairs = other.candidate_pairs;
+		cached_pairs = other.cached_pairs;
+		narrowphase_tests = other.narrowphase_tests;
+		contacts = other.contacts;
+		update_ns = other.update_ns;
+		broadphase_ns = other.broadphase_ns;
+		narrowphase_ns = other.narrowphase_ns;
+		frames = other.frames;
+	}
+
+	/** Returns the total time recorded for the frame, in nanoseconds */
+	public long getTotalNanos(){
+		return update_ns + broadphase_ns + narrowphase_ns;
+	}
+
+	@Override
+	public String toString(){
+		return shapes + " shapes (" + static_shapes + " static), " + sort_swaps + " swaps, "
+			+ candidate_pairs + " pairs, " + cached_pairs + " cached, " + narrowphase_tests + " tested, " + contacts + " contacts; "
+			+ update_ns/1000 + " + " + broadphase_ns/1000 + " + " + narrowphase_ns/1000 + " us";
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * ContactEvents.java
+ *
+ * A reusable list of contact events, filled by CollisionLayer.notifyContacts() and drained by the game once
+ * per tick. Each event says that a pair of Colliders began touching this frame (BEGIN), are still touching
+ * (PERSIST), or stopped touching (END). Game logic which should only happen once per touch, such as damage,
+ * reacts to BEGIN events alone; see dispatch().
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+
+public class ContactEvents{
+
+	//event phases
+	public static final int BEGIN   = 0;
+	public static final int PERSIST = 1;
+	public static final int END     = 2;
+
+	private int[] phases;
+	private Collider[] a;
+	private Collider[] b;
+	private float[] tois;
+	private int size;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public ContactEvents(){
+		phases = new int[64];
+		a = new Collider[64];
+		b = new Collider[64];
+		tois = new float[64];
+		size = 0;
+	}
+
+	//----------------------
+	//--| Access Methods |--
+	//----------------------
+
+	/**
+	 * Appends an event
+	 *
+	 * @param phase BEGIN, PERSIST or END
+	 * @param a     one of the Colliders
+	 * @param b     the other Collider
+	 * @param toi   when during the frame the pair first touched, or Narrowphase.NO_IMPACT if neither is swept
+	 */
+	public void add(int phase, Collider a, Collider b, float toi){
+		if (size == phases.length){
+			phases = Arrays.copyOf(phases, size * 2);
+			this.a = Arrays.copyOf(this.a, size * 2);
+			this.b = Arrays.copyOf(this.b, size * 2);
+			tois = Arrays.copyOf(tois, size * 2);
+		}
+		phases[size] = phase;
+		this.a[size] = a;
+		this.b[size] = b;
+		tois[size] = toi;
+		size++;
+	}
+
+	/** Empties this, keeping its storage for reuse; drops the references to every Collider */
+	public void clear(){
+		Arrays.fill(a, 0, size, null);
+		Arrays.fill(b, 0, size, null);
+		size = 0;
+	}
+
+	public int size(){ return size; }
+	public int getPhase(int i){ return phases[i]; }
+	public Collider getA(int i){ return a[i]; }
+	public Collider getB(int i){ return b[i]; }
+	public float getImpactTime(int i){ return tois[i]; }
+
+	//----------------
+	//--| Dispatch |--
+	//----------------
+
+	/**
+	 * Activates both Colliders of event i, the same way CollisionLayer.notifyCollisions() would: the time of
+	 * impact first (swept pairs only), then collide() on each side.
+	 */
+	public void dispatch(int i){
+		if (tois[i] != Narrowphase.NO_IMPACT){
+			a[i].informImpactTime(tois[i]);
+			b[i].informImpactTime(tois[i]);
+		}
+		a[i].collide(b[i]);
+		b[i].collide(a[i]);
+	}
+
+}
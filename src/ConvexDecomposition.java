@@ -0,0 +1,199 @@
+/**
+ * ConvexDecomposition.java
+ *
+ * Splits a concave polygon into convex parts, so that each part can be collided with the Narrowphase's
+ * exact convex tests, and given its own bounding box in a Broadphase. The polygon is triangulated by ear
+ * clipping, then neighbouring triangles are merged for as long as the result stays convex (Hertel-Mehlhorn),
+ * which gives at most four times the minimum number of parts, and usually far fewer.
+ *
+ * Only meant to be run once per Shape (e.g. when a CollisionImage is constructed); it allocates freely.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.ArrayList;
+
+public class ConvexDecomposition{
+
+	private ConvexDecomposition(){}
+
+	/**
+	 * Splits the simple polygon pts (x0, y0, x1, y1, ...; either winding) into convex parts.
+	 *
+	 * @return the parts, each in the same form as pts and wound counter-clockwise (in y-up terms), or null if
+	 *         pts is not a simple polygon (it crosses itself, or has fewer than 3 distinct corners)
+	 */
+	public static float[][] decompose(float[] pts){
+		ArrayList<int[]> parts = triangulate(pts);
+		if (parts == null){
+			return null;
+		}
+		mergeConvex(pts, parts);
+
+		float[][] result = new float[parts.size()][];
+		for (int p = 0; p < parts.size(); p++){
+			int[] part = parts.get(p);
+			result[p] = new float[part.length * 2];
+			for (int k = 0; k < part.length; k++){
+				result[p][2*k]     = pts[2*part[k]];
+				result[p][2*k + 1] = pts[2*part[k] + 1];
+			}
+		}
+		return result;
+	}
+
+	//---------------------
+	//--| Triangulation |--
+	//---------------------
+
+	/** Ear-clips pts into triangles of vertex indices, each wound positively; returns null if pts is not simple */
+	private static ArrayList<int[]> triangulate(float[] pts){
+		int n = pts.length / 2;
+
+		//work in positive winding, skipping repeated points
+		float area = 0f;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			area += pts[2*i]*pts[2*j + 1] - pts[2*j]*pts[2*i + 1];
+		}
+		int[] ring = new int[n];
+		int count = 0;
+		for (int k = 0; k < n; k++){
+			int i = (area > 0f) ? k : n - 1 - k;
+			if (count == 0 || !samePoint(pts, ring[count - 1], i)){
+				ring[count++] = i;
+			}
+		}
+		if (count > 1 && samePoint(pts, ring[count - 1], ring[0])){
+			count--;
+		}
+		if (count < 3 || area == 0f){
+			return null;
+		}
+
+		ArrayList<int[]> triangles = new ArrayList<int[]>();
+		while (count > 3){
+			boolean clipped = false;
+			for (int k = 0; k < count; k++){
+				int prev = ring[(k + count - 1) % count], cur = ring[k], next = ring[(k + 1) % count];
+				float turn = cross(pts, prev, cur, next);
+
+				//a straight corner is no corner; drop it
+				if (turn == 0f){
+					System.arraycopy(ring, k + 1, ring, k, count - k - 1);
+					count--;
+					clipped = true;
+					break;
+				}
+
+				if (turn > 0f && isEar(pts, ring, count, prev, cur, next)){
+					triangles.add(new int[]{ prev, cur, next });
+					System.arraycopy(ring, k + 1, ring, k, count - k - 1);
+					count--;
+					clipped = true;
+					break;
+				}
+			}
+			if (!clipped){
+				return null; //no ear: the polygon crosses itself
+			}
+		}
+		if (cross(pts, ring[0], ring[1], ring[2]) > 0f){
+			triangles.add(new int[]{ ring[0], ring[1], ring[2] });
+		}
+		return triangles.isEmpty() ? null : triangles;
+	}
+
+	/** Returns true if no other vertex of the ring lies in (or on) the triangle prev-cur-next */
+	private static boolean isEar(float[] pts, int[] ring, int count, int prev, int cur, int next){
+		for (int k = 0; k < count; k++){
+			int v = ring[k];
+			if (   v == prev || v == cur || v == next
+				|| samePoint(pts, v, prev) || samePoint(pts, v, cur) || samePoint(pts, v, next)
+				){
+				continue;
+			}
+			if (cross(pts, prev, cur, v) >= 0f && cross(pts, cur, next, v) >= 0f && cross(pts, next, prev, v) >= 0f){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//---------------
+	//--| Merging |--
+	//---------------
+
+	/** Merges neighbouring parts (sharing an edge) wherever the union is still convex */
+	private static void mergeConvex(float[] pts, ArrayList<int[]> parts){
+		boolean merged = true;
+		while (merged){
+			merged = false;
+			search:
+			for (int a = 0; a < parts.size(); a++){
+				for (int b = a + 1; b < parts.size(); b++){
+					int[] union = union(pts, parts.get(a), parts.get(b));
+					if (union != null){
+						parts.set(a, union);
+						parts.remove(b);
+						merged = true;
+						break search;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the union of the positively-wound parts a and b if they share an edge and the union is convex,
+	 * or null otherwise
+	 */
+	private static int[] union(float[] pts, int[] a, int[] b){
+		for (int i = 0; i < a.length; i++){
+			int u = a[i], v = a[(i + 1) % a.length];
+			for (int j = 0; j < b.length; j++){
+				if (b[j] != v || b[(j + 1) % b.length] != u){
+					continue;
+				}
+
+				//a from v round to u, then b from u round to v, without repeating u and v
+				int[] union = new int[a.length + b.length - 2];
+				int n = 0;
+				for (int k = 0; k < a.length; k++){
+					union[n++] = a[(i + 1 + k) % a.length];
+				}
+				for (int k = 2; k < b.length; k++){
+					union[n++] = b[(j + k) % b.length];
+				}
+				return isConvex(pts, union) ? union : null;
+			}
+		}
+		return null;
+	}
+
+	/** Returns true if the positively-wound ring of vertex indices never turns the wrong way */
+	private static boolean isConvex(float[] pts, int[] ring){
+		for (int k = 0; k < ring.length; k++){
+			if (cross(pts, ring[k], ring[(k + 1) % ring.length], ring[(k + 2) % ring.length]) < 0f){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//---------------
+	//--| Helpers |--
+	//---------------
+
+	/** Returns the cross product of (b - a) and (c - b); positive for a left turn a-b-c */
+	private static float cross(float[] pts, int a, int b, int c){
+		float abx = pts[2*b] - pts[2*a], aby = pts[2*b + 1] - pts[2*a + 1];
+		float bcx = pts[2*c] - pts[2*b], bcy = pts[2*c + 1] - pts[2*b + 1];
+		return abx*bcy - aby*bcx;
+	}
+
+	private static boolean samePoint(float[] pts, int a, int b){
+		return pts[2*a] == pts[2*b] && pts[2*a + 1] == pts[2*b + 1];
+	}
+
+}
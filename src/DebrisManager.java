@@ -7,47 +7,64 @@ import org.newdawn.slick.fills.*;
 import org.newdawn.slick.*;
 
 public class DebrisManager {
-	private Collection<Asteroid> asteroids;
+	private ArrayList<Asteroid> asteroids;
+	private ArrayList<Asteroid> toDestroy; // reused every update
 	private CollisionLayer cl;
+	private PhysicsWorld world; // where asteroids' physical state is kept; null for each to keep its own
 	private int timeSince;
 	private Random rand;
 	
 	private static final int MAX_ROIDS      = 30;   // max amount of asteroids to track
 	private static final int INTERVAL_MS    = 250;  // ~0.25 seconds
 	private static final float MAX_DIST_SQ  = 800f * 800f; // max distance before asteroids get wrecked
+	private static final float SPAWN_CLEARANCE = 25f; // nothing may be this close to a new asteroid's center (radius 20)
+	
+	private Collider[] nearby = new Collider[1]; // spawn-clearance query buffer
 	
 	public DebrisManager(CollisionLayer cl) {
+		this(cl, null);
+	}
+	
+	public DebrisManager(CollisionLayer cl, PhysicsWorld world) {
 		this.cl = cl;
+		this.world = world;
 		this.asteroids = new ArrayList<>(MAX_ROIDS);
+		this.toDestroy = new ArrayList<>(MAX_ROIDS);
 		this.timeSince = 0;
 		this.rand = new Random();
 	}
 	
-	public void update(GameContainer gc, int delta, Vector2f pos, float angle) throws SlickException {
+	public void update(GameContainer gc, int delta, float px, float py, float angle) throws SlickException {
+		update(delta, px, py, angle);
+	}
+	
+	public void update(int delta, float px, float py, float angle) throws SlickException {
 		timeSince += delta;
 		if (timeSince > INTERVAL_MS) { // checking every INTERVAL_MS milliseconds...
 			timeSince = 0;
 			if (asteroids.size() < MAX_ROIDS) {
-				spawnInRange(pos, angle);
+				spawnInRange(px, py, angle);
 			}
 		}
-		List<Asteroid> toDestroy = new LinkedList<>();
-		for (Asteroid a : asteroids) {
-			Vector2f apos = a.getPhys().getPosition();
-			if (apos.distanceSquared(pos) > MAX_DIST_SQ || a.getHP() < 1) {
+		for (int k = 0; k < asteroids.size(); k++) {
+			Asteroid a = asteroids.get(k);
+			float dx = a.getPhys().getX() - px, dy = a.getPhys().getY() - py;
+			if (dx * dx + dy * dy > MAX_DIST_SQ || a.getHP() < 1) {
 				toDestroy.add(a);
 			}
-			a.update(gc, delta);
+			a.update(delta);
 		}
-		for (Asteroid a : toDestroy){
+		for (int k = 0; k < toDestroy.size(); k++){
+			Asteroid a = toDestroy.get(k);
 			asteroids.remove(a);
 			a.destroy();
 		}
+		toDestroy.clear();
 	}
 	
 	public void render(GameContainer gc, Graphics g) throws SlickException {
-		for (Asteroid a : asteroids) {
-			a.render(gc, g);
+		for (int k = 0; k < asteroids.size(); k++) {
+			asteroids.get(k).render(gc, g);
 		}
 	}
 	
@@ -66,7 +83,7 @@ public class DebrisManager {
 	}
 	private static final float float2pi = (float)Math.PI * 2f;
 	
-	private void spawnInRange(Vector2f pos, float angle) {
+	private void spawnInRange(float px, float py, float angle) {
 		float rand_coef = rand.nextFloat();
 //		System.out.println("Randomized distance coefficient : " + rand_coef);
 		float distance = 400f + 350f * rand_coef;
@@ -76,9 +93,12 @@ public class DebrisManager {
 		float theta = angle + (float) Math.PI * ((rand_coef - 0.5f) / 1.5f);
 		theta = restrictAngle(theta);
 //		System.out.println("Relative angle: " + theta);
-		float x = pos.x + distance * (float) Math.cos(theta);
-		float y = pos.y + distance * (float) Math.sin(theta);
-		Asteroid result = Asteroid.makeAsteroid(x, y);
+		float x = px + distance * (float) Math.cos(theta);
+		float y = py + distance * (float) Math.sin(theta);
+		if (cl.queryRadius(x, y, SPAWN_CLEARANCE, CollisionLayer.MASK_ALL, nearby) > 0) {
+			return; // spot is taken; try again next interval
+		}
+		Asteroid result = Asteroid.makeAsteroid(x, y, world);
 		float rand_angle = float2pi * rand.nextFloat();
 		float rand_speed = 2f * rand.nextFloat();
 		result.getPhys().accelerate((float) Math.cos(rand_angle) * rand_speed, (float) Math.sin(rand_angle) * rand_speed);
@@ -0,0 +1,467 @@
+/**
+ * DynamicAABBTree.java
+ *
+ * A bounding-volume-hierarchy Broadphase. Every Shape is a leaf of a binary tree of bounding boxes, and
+ * each internal node's box encloses both of its children, so one Shape's neighbours are found by only
+ * descending into boxes which it touches. Handles scenes with very different object sizes (5px bullets,
+ * 20px asteroids, large sandbox polygons) much better than a uniform grid.
+ *
+ * Each leaf stores a "fat" box: the Shape's bounding box grown by a margin. A Shape which stays inside
+ * its fat box costs nothing to update; one which leaves it is removed and reinserted, which is O(log n).
+ * The tree is kept balanced by AVL-style rotations on the way back up from every insert and remove.
+ *
+ * Nodes are stored in parallel arrays and recycled through a free list.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+
+public class DynamicAABBTree implements Broadphase{
+
+	public static final float DEFAULT_MARGIN = 4f;
+
+	private static final int NULL = -1;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private float margin;
+
+	//tight bounding boxes, as last passed in by the CollisionLayer
+	private AABBSnapshot bounds;
+	private int[] leaf_of; //id -> leaf node
+
+	//tree nodes; a leaf has child1 == NULL, and its id in node_id
+	private float[] n_min_x;
+	private float[] n_min_y;
+	private float[] n_max_x;
+	private float[] n_max_y;
+	private int[] parent; //doubles as the next-free link for unused nodes
+	private int[] child1;
+	private int[] child2;
+	private int[] height;
+	private int[] node_id;
+	private int root;
+	private int free_node;
+
+	//traversal stack, reused by every query
+	private int[] stack;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public DynamicAABBTree(){
+		this(DEFAULT_MARGIN);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param margin how far a Shape may move outside its last bounding box before its leaf is reinserted
+	 */
+	public DynamicAABBTree(float margin){
+		if (!(margin >= 0f)){
+			throw new IllegalArgumentException("margin must be non-negative: " + margin);
+		}
+		this.margin = margin;
+
+		bounds = null;
+		leaf_of = new int[INITIAL_CAPACITY];
+
+		n_min_x = new float[0];
+		n_min_y = new float[0];
+		n_max_x = new float[0];
+		n_max_y = new float[0];
+		parent = new int[0];
+		child1 = new int[0];
+		child2 = new int[0];
+		height = new int[0];
+		node_id = new int[0];
+		growNodes(INITIAL_CAPACITY * 2);
+		root = NULL;
+
+		stack = new int[64];
+	}
+
+	//------------------
+	//--| Broadphase |--
+	//------------------
+
+	@Override
+	public void add(int id, AABBSnapshot bounds){
+		this.bounds = bounds;
+		if (id >= leaf_of.length){
+			leaf_of = Arrays.copyOf(leaf_of, Math.max(leaf_of.length * 2, id + 1));
+		}
+
+		int leaf = allocateNode();
+		node_id[leaf] = id;
+		setFatBounds(leaf, id);
+		leaf_of[id] = leaf;
+		insertLeaf(leaf);
+	}
+
+	@Override
+	public void remove(int id){
+		int leaf = leaf_of[id];
+		removeLeaf(leaf);
+		freeNode(leaf);
+		leaf_of[id] = NULL;
+	}
+
+	@Override
+	public void findPairs(AABBSnapshot bounds, PairList out){
+		this.bounds = bounds;
+		float[] min_x = bounds.min_x, min_y = bounds.min_y, max_x = bounds.max_x, max_y = bounds.max_y;
+
+		//refit: only Shapes which left their fat box are reinserted
+		for (int i = 0; i < bounds.getCount(); i++){
+			int id = bounds.getId(i);
+			int leaf = leaf_of[id];
+			if (   min_x[id] < n_min_x[leaf] || min_y[id] < n_min_y[leaf]
+				|| max_x[id] > n_max_x[leaf] || max_y[id] > n_max_y[leaf]
+				){
+				removeLeaf(leaf);
+				setFatBounds(leaf, id);
+				insertLeaf(leaf);
+			}
+		}
+
+		//query the tree with every Shape's tight box; each pair is reported by its lower id
+		for (int i = 0; i < bounds.getCount(); i++){
+			int id = bounds.getId(i);
+
+			int top = 0;
+			stack[top++] = root;
+			while (top > 0){
+				int node = stack[--top];
+				if (   node == NULL
+					|| n_min_x[node] > max_x[id] || min_x[id] > n_max_x[node]
+					|| n_min_y[node] > max_y[id] || min_y[id] > n_max_y[node]
+					){
+					continue;
+				}
+
+				if (child1[node] == NULL){
+					int other = node_id[node];
+					if (other > id && bounds.canCollide(id, other) && bounds.overlaps(id, other)){
+						out.add(id, other);
+					}
+				} else {
+					if (top + 2 > stack.length){
+						stack = Arrays.copyOf(stack, stack.length * 2);
+					}
+					stack[top++] = child1[node];
+					stack[top++] = child2[node];
+				}
+			}
+		}
+
+	}
+
+	@Override
+	public void query(AABBSnapshot bounds, float min_x, float min_y, float max_x, float max_y, QueryCallback callback){
+		int top = 0;
+		stack[top++] = root;
+		while (top > 0){
+			int node = stack[--top];
+			if (   node == NULL
+				|| n_min_x[node] > max_x || min_x > n_max_x[node]
+				|| n_min_y[node] > max_y || min_y > n_max_y[node]
+				){
+				continue;
+			}
+
+			if (child1[node] == NULL){
+				//the fat box overlaps; check the tight one
+				int id = node_id[node];
+				if (   bounds.min_x[id] <= max_x && min_x <= bounds.max_x[id]
+					&& bounds.min_y[id] <= max_y && min_y <= bounds.max_y[id]
+					&& !callback.report(id)
+					){
+					return;
+				}
+			} else {
+				if (top + 2 > stack.length){
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[top++] = child1[node];
+				stack[top++] = child2[node];
+			}
+		}
+	}
+
+	//------------------------
+	//--| Tree Maintenance |--
+	//------------------------
+
+	private void insertLeaf(int leaf){
+		if (root == NULL){
+			root = leaf;
+			parent[root] = NULL;
+			return;
+		}
+
+		//find the best sibling: the node whose box grows the least by enclosing leaf
+		float lx0 = n_min_x[leaf], ly0 = n_min_y[leaf], lx1 = n_max_x[leaf], ly1 = n_max_y[leaf];
+		int index = root;
+		while (child1[index] != NULL){
+			int c1 = child1[index];
+			int c2 = child2[index];
+
+			float area = perimeter(n_min_x[index], n_min_y[index], n_max_x[index], n_max_y[index]);
+			float combined_area = perimeter(
+				Math.min(n_min_x[index], lx0), Math.min(n_min_y[index], ly0),
+				Math.max(n_max_x[index], lx1), Math.max(n_max_y[index], ly1)
+				);
+
+			//cost of making a new parent for index and leaf
+			float cost = 2f * combined_area;
+
+			//minimum cost of pushing leaf further down the tree
+			float inheritance_cost = 2f * (combined_area - area);
+
+			float cost1 = descentCost(c1, leaf) + inheritance_cost;
+			float cost2 = descentCost(c2, leaf) + inheritance_cost;
+
+			if (cost < cost1 && cost < cost2){
+				break;
+			}
+			index = (cost1 < cost2) ? c1 : c2;
+		}
+		int sibling = index;
+
+		//make a new parent for sibling and leaf
+		int old_parent = parent[sibling];
+		int new_parent = allocateNode();
+		parent[new_parent] = old_parent;
+		node_id[new_parent] = NULL;
+		height[new_parent] = height[sibling] + 1;
+		child1[new_parent] = sibling;
+		child2[new_parent] = leaf;
+		parent[sibling] = new_parent;
+		parent[leaf] = new_parent;
+		if (old_parent == NULL){
+			root = new_parent;
+		} else if (child1[old_parent] == sibling){
+			child1[old_parent] = new_parent;
+		} else {
+			child2[old_parent] = new_parent;
+		}
+
+		refitUpwards(new_parent);
+	}
+
+	private void removeLeaf(int leaf){
+		if (leaf == root){
+			root = NULL;
+			return;
+		}
+
+		int p = parent[leaf];
+		int grandparent = parent[p];
+		int sibling = (child1[p] == leaf) ? child2[p] : child1[p];
+
+		//replace p with sibling
+		if (grandparent == NULL){
+			root = sibling;
+			parent[sibling] = NULL;
+			freeNode(p);
+		} else {
+			if (child1[grandparent] == p){
+				child1[grandparent] = sibling;
+			} else {
+				child2[grandparent] = sibling;
+			}
+			parent[sibling] = grandparent;
+			freeNode(p);
+			refitUpwards(grandparent);
+		}
+	}
+
+	/** Rebalances, and recomputes the box and height of, index and each of its ancestors */
+	private void refitUpwards(int index){
+		while (index != NULL){
+			index = balance(index);
+
+			int c1 = child1[index];
+			int c2 = child2[index];
+			height[index] = 1 + Math.max(height[c1], height[c2]);
+			union(index, c1, c2);
+
+			index = parent[index];
+		}
+	}
+
+	/**
+	 * If one child of a is more than one level taller than the other, rotates the taller one up
+	 * into a's place. Returns the index of the node now in a's place.
+	 */
+	private int balance(int a){
+		if (child1[a] == NULL || height[a] < 2){
+			return a;
+		}
+
+		int b = child1[a];
+		int c = child2[a];
+		int bal = height[c] - height[b];
+
+		//rotate c up
+		if (bal > 1){
+			int f = child1[c];
+			int g = child2[c];
+
+			child1[c] = a;
+			parent[c] = parent[a];
+			parent[a] = c;
+			replaceChild(parent[c], a, c);
+
+			if (height[f] > height[g]){
+				child2[c] = f;
+				child2[a] = g;
+				parent[g] = a;
+				union(a, b, g);
+				union(c, a, f);
+				height[a] = 1 + Math.max(height[b], height[g]);
+				height[c] = 1 + Math.max(height[a], height[f]);
+			} else {
+				child2[c] = g;
+				child2[a] = f;
+				parent[f] = a;
+				union(a, b, f);
+				union(c, a, g);
+				height[a] = 1 + Math.max(height[b], height[f]);
+				height[c] = 1 + Math.max(height[a], height[g]);
+			}
+			return c;
+		}
+
+		//rotate b up
+		if (bal < -1){
+			int d = child1[b];
+			int e = child2[b];
+
+			child1[b] = a;
+			parent[b] = parent[a];
+			parent[a] = b;
+			replaceChild(parent[b], a, b);
+
+			if (height[d] > height[e]){
+				child2[b] = d;
+				child1[a] = e;
+				parent[e] = a;
+				union(a, c, e);
+				union(b, a, d);
+				height[a] = 1 + Math.max(height[c], height[e]);
+				height[b] = 1 + Math.max(height[a], height[d]);
+			} else {
+				child2[b] = e;
+				child1[a] = d;
+				parent[d] = a;
+				union(a, c, d);
+				union(b, a, e);
+				height[a] = 1 + Math.max(height[c], height[d]);
+				height[b] = 1 + Math.max(height[a], height[e]);
+			}
+			return b;
+		}
+
+		return a;
+	}
+
+	/** Points p's link to old_child at new_child instead; a NULL p means old_child was the root */
+	private void replaceChild(int p, int old_child, int new_child){
+		if (p == NULL){
+			root = new_child;
+		} else if (child1[p] == old_child){
+			child1[p] = new_child;
+		} else {
+			child2[p] = new_child;
+		}
+	}
+
+	//-----------------------
+	//--| Node Management |--
+	//-----------------------
+
+	private int allocateNode(){
+		if (free_node == NULL){
+			growNodes(parent.length * 2);
+		}
+		int node = free_node;
+		free_node = parent[node];
+		parent[node] = NULL;
+		child1[node] = NULL;
+		child2[node] = NULL;
+		height[node] = 0;
+		node_id[node] = NULL;
+		return node;
+	}
+
+	private void freeNode(int node){
+		parent[node] = free_node;
+		height[node] = -1;
+		free_node = node;
+	}
+
+	private void growNodes(int capacity){
+		int old = parent.length;
+		n_min_x = Arrays.copyOf(n_min_x, capacity);
+		n_min_y = Arrays.copyOf(n_min_y, capacity);
+		n_max_x = Arrays.copyOf(n_max_x, capacity);
+		n_max_y = Arrays.copyOf(n_max_y, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		child1 = Arrays.copyOf(child1, capacity);
+		child2 = Arrays.copyOf(child2, capacity);
+		height = Arrays.copyOf(height, capacity);
+		node_id = Arrays.copyOf(node_id, capacity);
+
+		//chain the new nodes onto the free list
+		for (int i = old; i < capacity - 1; i++){
+			parent[i] = i + 1;
+			height[i] = -1;
+		}
+		parent[capacity - 1] = NULL;
+		height[capacity - 1] = -1;
+		free_node = old;
+	}
+
+	//---------------
+	//--| Helpers |--
+	//---------------
+
+	private void setFatBounds(int leaf, int id){
+		n_min_x[leaf] = bounds.min_x[id] - margin;
+		n_min_y[leaf] = bounds.min_y[id] - margin;
+		n_max_x[leaf] = bounds.max_x[id] + margin;
+		n_max_y[leaf] = bounds.max_y[id] + margin;
+	}
+
+	/** Sets node's box to enclose the boxes of a and b */
+	private void union(int node, int a, int b){
+		n_min_x[node] = Math.min(n_min_x[a], n_min_x[b]);
+		n_min_y[node] = Math.min(n_min_y[a], n_min_y[b]);
+		n_max_x[node] = Math.max(n_max_x[a], n_max_x[b]);
+		n_max_y[node] = Math.max(n_max_y[a], n_max_y[b]);
+	}
+
+	/** Returns the cost of leaf descending into child, not counting inherited cost */
+	private float descentCost(int child, int leaf){
+		float combined = perimeter(
+			Math.min(n_min_x[child], n_min_x[leaf]), Math.min(n_min_y[child], n_min_y[leaf]),
+			Math.max(n_max_x[child], n_max_x[leaf]), Math.max(n_max_y[child], n_max_y[leaf])
+			);
+		if (child1[child] == NULL){
+			return combined;
+		}
+		return combined - perimeter(n_min_x[child], n_min_y[child], n_max_x[child], n_max_y[child]);
+	}
+
+	private static float perimeter(float x0, float y0, float x1, float y1){
+		return 2f * ((x1 - x0) + (y1 - y0));
+	}
+
+	/** Returns the height of the tree; a balanced tree of n leaves is about log2(n) tall */
+	public int getHeight(){ return (root == NULL) ? 0 : height[root]; }
+
+}
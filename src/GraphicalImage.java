@@ -6,6 +6,7 @@
  * 
  * Functionalities include:
  *    - graphical representation
+ *    - placement by a pose (see Physics), drawing a shared ShapeTemplate
  * 
  * Author:       Erik Steringer
  * Last Updated: 2014-Nov-9 by Erik Steringer
@@ -15,7 +16,6 @@ import org.newdawn.slick.fills.GradientFill;
 import org.newdawn.slick.ShapeFill;
 import org.newdawn.slick.Graphics;
 import org.newdawn.slick.geom.Shape;
-import org.newdawn.slick.geom.Transform;
 import org.newdawn.slick.Color;
 import org.newdawn.slick.GameContainer;
 
@@ -23,18 +23,21 @@ import org.lwjgl.opengl.GL11;
 
 public class GraphicalImage {
 	/// fields
-	private Shape shapeView;
+	private ShapeTemplate shapeView; // local-space shape, shared with every object of the same shape
+	private float poseX;             // where shapeView is drawn; see setPose()
+	private float poseY;
+	private float poseRot;
 	private ShapeFill fillup;
 	// private Image imageView; // unimplemented until further version
 	
 	/// constructors
 	public GraphicalImage(Shape shape) {
-		this.shapeView = shape;
+		this.shapeView = ShapeTemplate.of(shape);
 		this.fillup = new GradientFill(0.0f, 0.0f, Color.blue, 1.0f, 1.0f, Color.blue); // default patriotic shapefill
 	}
 	
 	public GraphicalImage(Shape shape, ShapeFill fill) {
-		this.shapeView = shape;
+		this.shapeView = ShapeTemplate.of(shape);
 		this.fillup = fill;
 	}
 	
@@ -44,22 +47,24 @@ public class GraphicalImage {
 	 * 
 	 */
 	public void render(GameContainer gc, Graphics g) {
-		g.fill(shapeView, fillup);
+		shapeView.fill(g, fillup, poseX, poseY, poseRot);
 	}
 	
 	/**
-	 * Updates by translating the contained shape
+	 * Places the contained shape: its origin at (x, y), rotated by rotation radians
 	 *
 	 */
-	public void transform(Transform t) {
-		shapeView = shapeView.transform(t);
+	public void setPose(float x, float y, float rotation) {
+		poseX = x;
+		poseY = y;
+		poseRot = rotation;
 	}
 	
 	public float getMidX() {
-		return shapeView.getCenterX();
+		return shapeView.getCenterX(poseX, poseRot);
 	}
 	
 	public float getMidY() {
-		return shapeView.getCenterY();
+		return shapeView.getCenterY(poseY, poseRot);
 	}
 }
\ No newline at end of file
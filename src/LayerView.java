@@ -0,0 +1,254 @@
+/**
+ * LayerView.java
+ *
+ * One logical layer (sensors, pickups, hazards...) of a CollisionLayer which several layers share. Each body is
+ * stored in the shared CollisionLayer once, with a bit for every layer it belongs to, so adding a layer adds no
+ * bounding boxes to refresh or sort; pairs are only generated between bodies sharing a layer, and queries through
+ * a view only find that layer's bodies.
+ *
+ * The shared CollisionLayer is notified once per frame (notifyCollisions() or notifyContacts()), not each view;
+ * a pair of bodies sharing several layers collides once. CollisionImage.addTo(LayerView) joins a view.
+ *
+ * Author: Wesley Gydé
+ */
+
+import org.newdawn.slick.geom.Shape;
+
+public class LayerView{
+
+	private CollisionLayer index;
+	private int layer; //0-31
+	private int bit;   //1 << layer
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param index the CollisionLayer the layer lives in, shared with other LayerViews
+	 * @param layer which of index's layers this sees, from 0 to 31; layer 0 is CollisionLayer.LAYER_DEFAULT
+	 * @throws IllegalArgumentException if layer is out of range
+	 */
+	public LayerView(CollisionLayer index, int layer){
+		if (layer < 0 || layer >= 32){
+			throw new IllegalArgumentException("layer must be from 0 to 31: " + layer);
+		}
+		this.index = index;
+		this.layer = layer;
+		this.bit = 1 << layer;
+	}
+
+	//--------------------------
+	//--| Membership/Queries |--
+	//--------------------------
+
+	/**
+	 * Adds s to the shared CollisionLayer in this layer only; see CollisionLayer.add(). To put a body in several
+	 * layers, use CollisionImage.addTo(), or CollisionLayer.setLayers().
+	 *
+	 * @return a handle for s, to be passed to remove()
+	 */
+	public int add(Container<Shape> s, Collider c, boolean swept, int category, int mask, int body_type){
+		return index.add(s, c, swept, category, mask, body_type, bit);
+	}
+
+	/** Removes the body with the input handle from the shared CollisionLayer, and so from every layer */
+	public void remove(int handle){
+		index.remove(handle);
+	}
+
+	/** As CollisionLayer.queryAABB(), finding only this layer's Shapes */
+	public int queryAABB(float min_x, float min_y, float max_x, float max_y, int mask, Collider[] out){
+		return index.queryAABB(min_x, min_y, max_x, max_y, mask, bit, out);
+	}
+
+	/** As CollisionLayer.queryRadius(), finding only this layer's Shapes */
+	public int queryRadius(float cx, float cy, float r, int mask, Collider[] out){
+		return index.queryRadius(cx, cy, r, mask, bit, out);
+	}
+
+	/** As CollisionLayer.raycast(), hitting only this layer's Shapes */
+	public boolean raycast(float x0, float y0, float x1, float y1, int mask, CollisionLayer.RayHit hit){
+		return index.raycast(x0, y0, x1, y1, mask, bit, hit);
+	}
+
+	//----------------------
+	//--| Access Methods |--
+	//----------------------
+
+	/** Returns the CollisionLayer shared by this and the other layers */
+	public CollisionLayer getIndex(){ return index; }
+
+	/** Returns which of the shared CollisionLayer's layers this sees */
+	public int getLayer(){ return layer; }
+
+	/** Returns this layer's bit, as passed to CollisionLayer.add() and setLayers() */
+	public int getBit(){ return bit; }
+
+	//--------------------------
+	//--| Test/Debug Methods |--
+	//--------------------------
+
+	/**
+	 * Sandbox driver: puts a drifting field of bodies into 1 to 8 gameplay layers (every body in layer 0, and
+	 * each other layer taking half of them), once as one CollisionLayer per layer and once as LayerViews of a
+	 * single shared CollisionLayer; after a discarded warm-up pass of each, prints the time per frame of each,
+	 * and checks that the same bodies collide both ways. First checks layer changes under every Broadphase (see
+	 * checkLayerChanges()), and exits with status 1 if one fails.
+	 */
+	public static void main(String[] args){
+		if (!checkLayerChanges()){
+			System.exit(1);
+		}
+
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int frames = 50;
+
+		for (int layer_count = 1; layer_count <= 8; layer_count *= 2){
+			for (int pass = 0; pass < 2; pass++){ //the first pass warms up
+				long[] elapsed = new long[2];
+				final java.util.Set<Long>[] found = newPairSets(2);
+
+				for (int run = 0; run < 2; run++){
+					final java.util.Set<Long> pairs_found = found[run];
+					CollisionLayer shared = new CollisionLayer( new SpatialHashGrid() );
+					CollisionLayer[] separate = new CollisionLayer[layer_count];
+					LayerView[] views = new LayerView[layer_count];
+					for (int k = 0; k < layer_count; k++){
+						separate[k] = new CollisionLayer( new SpatialHashGrid() );
+						views[k] = new LayerView(shared, k);
+					}
+
+					java.util.Random rand = new java.util.Random(1);
+					CollisionImage[] images = new CollisionImage[n];
+					float[] positions = new float[2*n];
+					float[] velocities = new float[2*n];
+					for (int i = 0; i < n; i++){
+						final long who = i;
+						positions[2*i] = rand.nextFloat() * 1200f;
+						positions[2*i + 1] = rand.nextFloat() * 1200f;
+						images[i] = new CollisionImage(
+							new org.newdawn.slick.geom.Circle(0f, 0f, 10f),
+							new Collider(){
+								@Override
+								public void collide(Collider c){ pairs_found.add(who); }
+							});
+						images[i].setPose(positions[2*i], positions[2*i + 1], 0f);
+						velocities[2*i] = rand.nextFloat() * 2f - 1f;
+						velocities[2*i + 1] = rand.nextFloat() * 2f - 1f;
+						for (int k = 0; k < layer_count; k++){
+							if (k == 0 || rand.nextBoolean()){
+								if (run == 0){
+									images[i].addTo(separate[k]);
+								} else {
+									images[i].addTo(views[k]);
+								}
+							}
+						}
+					}
+
+					long start = System.nanoTime();
+					for (int f = 0; f < frames; f++){
+						for (int i = 0; i < n; i++){
+							positions[2*i] += velocities[2*i];
+							positions[2*i + 1] += velocities[2*i + 1];
+							images[i].setPose(positions[2*i], positions[2*i + 1], 0f);
+						}
+						if (run == 0){
+							for (CollisionLayer cl : separate){
+								cl.notifyCollisions();
+							}
+						} else {
+							shared.notifyCollisions();
+						}
+					}
+					elapsed[run] = (System.nanoTime() - start) / frames;
+				}
+
+				if (pass == 1){
+					System.out.println(
+						layer_count + " layers: " + elapsed[0]/1000 + " us/frame separate, " + elapsed[1]/1000 + " us/frame shared"
+						+ "; same bodies collided: " + found[0].equals(found[1])
+						);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Puts two overlapping, motionless circles in a shared CollisionLayer, and moves one into and out of the
+	 * other's layer a frame at a time: starting apart (apart, joined, left), and starting in the same layer
+	 * (shared, left, rejoined). Under every Broadphase, they must collide exactly while they share the layer.
+	 * Prints each Broadphase's results, and returns true if all of them passed.
+	 */
+	private static boolean checkLayerChanges(){
+		String[] names = { "SweepAndPrune", "SpatialHashGrid", "DynamicAABBTree", "SortedSweep", "LinearBVH" };
+		boolean passed = true;
+		for (int k = 0; k < names.length; k++){
+			for (int start_shared = 0; start_shared < 2; start_shared++){
+				Broadphase broadphase;
+				switch (k){
+				case 0:  broadphase = new SweepAndPrune();    break;
+				case 1:  broadphase = new SpatialHashGrid();  break;
+				case 2:  broadphase = new DynamicAABBTree();  break;
+				case 3:  broadphase = new SortedSweep();      break;
+				default: broadphase = new LinearBVH();        break;
+				}
+				CollisionLayer shared = new CollisionLayer(broadphase);
+				LayerView first = new LayerView(shared, 0);
+				LayerView second = new LayerView(shared, 1);
+
+				final int[] hits = new int[1];
+				Collider counter = new Collider(){
+					@Override
+					public void collide(Collider c){ hits[0]++; }
+				};
+				CollisionImage a = new CollisionImage(new org.newdawn.slick.geom.Circle(0f, 0f, 10f), counter);
+				CollisionImage b = new CollisionImage(new org.newdawn.slick.geom.Circle(0f, 0f, 10f), counter);
+				a.setPose(100f, 100f, 0f);
+				b.setPose(105f, 100f, 0f);
+				a.addTo(first);
+				b.addTo(second);
+				if (start_shared == 1){
+					b.addTo(first);
+				}
+
+				//b's membership of first toggles every frame after the first; the boxes overlap throughout
+				boolean ok = true;
+				String results = "";
+				for (int step = 0; step < 3; step++){
+					if (step > 0){
+						if ((step + start_shared) % 2 == 1){
+							b.addTo(first);
+						} else {
+							b.removeFrom(first);
+						}
+					}
+					hits[0] = 0;
+					shared.notifyCollisions();
+					boolean sharing = (step + start_shared) % 2 == 1;
+					ok &= sharing ? hits[0] > 0 : hits[0] == 0;
+					results += (step > 0 ? "/" : "") + hits[0];
+				}
+
+				System.out.println( names[k] + ": collisions " + (start_shared == 1 ? "shared/left/rejoined" : "apart/joined/left")
+					+ " = " + results + (ok ? "" : "  FAILED") );
+				passed &= ok;
+			}
+		}
+		return passed;
+	}
+
+	/** Returns n new empty sets of body ids; Java cannot create a generic array directly */
+	@SuppressWarnings("unchecked")
+	private static java.util.Set<Long>[] newPairSets(int n){
+		java.util.Set<Long>[] sets = (java.util.Set<Long>[]) new java.util.Set<?>[n];
+		for (int i = 0; i < n; i++){
+			sets[i] = new java.util.HashSet<Long>();
+		}
+		return sets;
+	}
+
+}
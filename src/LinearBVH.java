@@ -0,0 +1,603 @@
+/**
+ * LinearBVH.java
+ *
+ * A bounding-volume-hierarchy Broadphase which is thrown away and rebuilt every frame, for scenes where almost
+ * everything moves every frame (asteroid fields, swarms of AI ships, bullets). DynamicAABBTree spends such
+ * frames reinserting leaves; this spends them on a build which is linear in the number of Shapes:
+ *     1. the center of every bounding box is quantized onto a 2^15 x 2^15 grid over the scene, and given the
+ *        Morton code of its cell (the bits of x and y interleaved), so boxes near each other in space get
+ *        codes near each other;
+ *     2. the leaves are radix-sorted by code;
+ *     3. the tree's internal nodes are built straight from the sorted codes: node i's range of leaves and
+ *        split point follow from the common prefixes of neighbouring codes (Karras, "Maximizing Parallelism
+ *        in the Construction of BVHs, Octrees, and k-d Trees", 2012), so every node is built independently;
+ *     4. internal boxes are filled in bottom-up, each subtree independently.
+ * Steps 3 and 4, and pair generation (each leaf descends the tree, only towards leaves after it in Morton
+ * order), are spread over a ForkJoinPool for large scenes. Work is split into fixed-size chunks, and each
+ * chunk's pairs are kept apart until they are appended in order, so the output never depends on the number of
+ * threads.
+ *
+ * query() descends the last frame's tree, and also checks every id added since then.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public class LinearBVH implements Broadphase{
+
+	/** Below this many Shapes, the tree is built and searched on the calling thread only */
+	public static final int PARALLEL_MIN_LEAVES = 4096;
+
+	//nodes (or leaves) per parallel task; a fixed size, so the split never depends on the thread count
+	private static final int CHUNK_SIZE = 1024;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	//Morton codes interleave this many bits of each axis
+	private static final int MORTON_BITS = 15;
+	private static final int MORTON_MAX = (1 << MORTON_BITS) - 1;
+
+	//ChunkTask jobs
+	private static final int BUILD = 0;
+	private static final int PAIRS = 1;
+
+	//Splits chunks [first_chunk, last_chunk) of a job in half until one chunk is left
+	private class ChunkTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		private int job;
+		private int first_chunk;
+		private int last_chunk;
+
+		public ChunkTask(int job, int first_chunk, int last_chunk){
+			this.job = job;
+			this.first_chunk = first_chunk;
+			this.last_chunk = last_chunk;
+		}
+
+		@Override
+		protected void compute(){
+			if (last_chunk - first_chunk == 1){
+				if (job == BUILD){
+					buildChunk(first_chunk);
+				} else {
+					pairChunk(first_chunk);
+				}
+			} else {
+				int mid = (first_chunk + last_chunk) >>> 1;
+				invokeAll( new ChunkTask(job, first_chunk, mid), new ChunkTask(job, mid, last_chunk) );
+			}
+		}
+
+	}
+
+	//Fills in the boxes of the subtree under an internal node
+	private class RefitTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		private int node;
+
+		public RefitTask(int node){
+			this.node = node;
+		}
+
+		@Override
+		protected void compute(){
+			refit(node, true);
+		}
+
+	}
+
+	//parallel build, or null to build on the calling thread
+	private ForkJoinPool pool;
+
+	//bounding boxes, as last passed in by the CollisionLayer
+	private AABBSnapshot bounds;
+
+	//sort keys: Morton code << 32 | id; radix-sorted with keys_scratch
+	private long[] keys;
+	private long[] keys_scratch;
+	private int[] radix_counts;
+
+	//leaves, in Morton order; leaf k is id leaf_ids[k], with a copy of its box as of the last findPairs()
+	private int[] codes;
+	private int[] leaf_ids;
+	private float[] leaf_min_x;
+	private float[] leaf_min_y;
+	private float[] leaf_max_x;
+	private float[] leaf_max_y;
+	private int leaf_count;
+
+	//internal nodes 0 .. leaf_count - 2, with node 0 the root. A child >= 0 is an internal node; a child < 0 is
+	//the leaf ~child. An internal node covers leaves first[node] .. last[node]
+	private int[] left;
+	private int[] right;
+	private int[] first;
+	private int[] last;
+	private float[] node_min_x;
+	private float[] node_min_y;
+	private float[] node_max_x;
+	private float[] node_max_y;
+
+	//findPairs() output and traversal stack of each chunk of leaves; reused every frame
+	private PairList[] chunk_pairs;
+	private int[][] chunk_stacks;
+
+	//query() traversal stack
+	private int[] query_stack;
+
+	//ids added since the last findPairs(), not yet in the tree
+	private int[] added_ids;
+	private int added_count;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	/** Builds large trees in parallel */
+	public LinearBVH(){
+		this(true);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param parallel true to build and search trees of PARALLEL_MIN_LEAVES or more Shapes on several threads
+	 */
+	public LinearBVH(boolean parallel){
+		pool = parallel ? new ForkJoinPool() : null;
+		bounds = null;
+
+		keys = new long[INITIAL_CAPACITY];
+		keys_scratch = new long[INITIAL_CAPACITY];
+		radix_counts = new int[256];
+
+		codes = new int[INITIAL_CAPACITY];
+		leaf_ids = new int[INITIAL_CAPACITY];
+		leaf_min_x = new float[INITIAL_CAPACITY];
+		leaf_min_y = new float[INITIAL_CAPACITY];
+		leaf_max_x = new float[INITIAL_CAPACITY];
+		leaf_max_y = new float[INITIAL_CAPACITY];
+		leaf_count = 0;
+
+		left = new int[INITIAL_CAPACITY];
+		right = new int[INITIAL_CAPACITY];
+		first = new int[INITIAL_CAPACITY];
+		last = new int[INITIAL_CAPACITY];
+		node_min_x = new float[INITIAL_CAPACITY];
+		node_min_y = new float[INITIAL_CAPACITY];
+		node_max_x = new float[INITIAL_CAPACITY];
+		node_max_y = new float[INITIAL_CAPACITY];
+
+		chunk_pairs = new PairList[0];
+		chunk_stacks = new int[0][];
+		query_stack = new int[INITIAL_CAPACITY];
+
+		added_ids = new int[INITIAL_CAPACITY];
+		added_count = 0;
+	}
+
+	//------------------
+	//--| Broadphase |--
+	//------------------
+
+	@Override
+	public void add(int id, AABBSnapshot bounds){
+		//the tree is rebuilt from the snapshot every frame; only remembered until then, for query()
+		if (added_count == added_ids.length){
+			added_ids = Arrays.copyOf(added_ids, added_ids.length * 2);
+		}
+		added_ids[added_count++] = id;
+	}
+
+	@Override
+	public void remove(int id){
+		//the tree is rebuilt from the snapshot every frame; nothing to track
+	}
+
+	@Override
+	public void findPairs(AABBSnapshot bounds, PairList out){
+		this.bounds = bounds;
+		added_count = 0;
+
+		sortLeaves();
+		if (leaf_count < 2){
+			return;
+		}
+		boolean parallel = pool != null && leaf_count >= PARALLEL_MIN_LEAVES;
+
+		//internal nodes
+		int build_chunks = (leaf_count - 1 + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		if (parallel){
+			pool.invoke( new ChunkTask(BUILD, 0, build_chunks) );
+			pool.invoke( new RefitTask(0) );
+		} else {
+			for (int chunk = 0; chunk < build_chunks; chunk++){
+				buildChunk(chunk);
+			}
+			refit(0, false);
+		}
+
+		//pairs, chunk by chunk
+		int pair_chunks = (leaf_count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		if (chunk_pairs.length < pair_chunks){
+			int old_length = chunk_pairs.length;
+			chunk_pairs = Arrays.copyOf(chunk_pairs, pair_chunks);
+			chunk_stacks = Arrays.copyOf(chunk_stacks, pair_chunks);
+			for (int chunk = old_length; chunk < pair_chunks; chunk++){
+				chunk_pairs[chunk] = new PairList();
+				chunk_stacks[chunk] = new int[INITIAL_CAPACITY];
+			}
+		}
+		if (parallel){
+			pool.invoke( new ChunkTask(PAIRS, 0, pair_chunks) );
+		} else {
+			for (int chunk = 0; chunk < pair_chunks; chunk++){
+				pairChunk(chunk);
+			}
+		}
+
+		for (int chunk = 0; chunk < pair_chunks; chunk++){
+			PairList pairs = chunk_pairs[chunk];
+			for (int i = 0; i < pairs.size(); i++){
+				out.add( pairs.getA(i), pairs.getB(i) );
+			}
+		}
+	}
+
+	@Override
+	public void query(AABBSnapshot bounds, float min_x, float min_y, float max_x, float max_y, QueryCallback callback){
+		if (leaf_count == 1){
+			if (leafOverlaps(0, min_x, min_y, max_x, max_y) && !callback.report(leaf_ids[0])){
+				return;
+			}
+		} else if (leaf_count > 1){
+			int top = 0;
+			query_stack[top++] = 0;
+			while (top > 0){
+				int node = query_stack[--top];
+				if (   node_min_x[node] > max_x || min_x > node_max_x[node]
+					|| node_min_y[node] > max_y || min_y > node_max_y[node]
+					){
+					continue;
+				}
+				for (int child = left[node], k = 0; k < 2; child = right[node], k++){
+					if (child < 0){
+						if (leafOverlaps(~child, min_x, min_y, max_x, max_y) && !callback.report(leaf_ids[~child])){
+							return;
+						}
+					} else {
+						if (top == query_stack.length){
+							query_stack = Arrays.copyOf(query_stack, top * 2);
+						}
+						query_stack[top++] = child;
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < added_count; i++){
+			int id = added_ids[i];
+			if (   bounds.min_x[id] <= max_x && min_x <= bounds.max_x[id]
+				&& bounds.min_y[id] <= max_y && min_y <= bounds.max_y[id]
+				&& !callback.report(id)
+				){
+				return;
+			}
+		}
+	}
+
+	//----------------
+	//--| Building |--
+	//----------------
+
+	/** Computes every box's Morton code, sorts the leaves by it, and copies their boxes into leaf order */
+	private void sortLeaves(){
+		int n = bounds.getCount();
+		if (keys.length < n){
+			int capacity = Math.max(keys.length * 2, n);
+			keys = new long[capacity];
+			keys_scratch = new long[capacity];
+			codes = new int[capacity];
+			leaf_ids = new int[capacity];
+			leaf_min_x = new float[capacity];
+			leaf_min_y = new float[capacity];
+			leaf_max_x = new float[capacity];
+			leaf_max_y = new float[capacity];
+			left = new int[capacity];
+			right = new int[capacity];
+			first = new int[capacity];
+			last = new int[capacity];
+			node_min_x = new float[capacity];
+			node_min_y = new float[capacity];
+			node_max_x = new float[capacity];
+			node_max_y = new float[capacity];
+		}
+
+		//the box around every center
+		float lo_x = Float.MAX_VALUE, lo_y = Float.MAX_VALUE;
+		float hi_x = -Float.MAX_VALUE, hi_y = -Float.MAX_VALUE;
+		for (int i = 0; i < n; i++){
+			int id = bounds.getId(i);
+			float cx = (bounds.min_x[id] + bounds.max_x[id]) * 0.5f;
+			float cy = (bounds.min_y[id] + bounds.max_y[id]) * 0.5f;
+			lo_x = Math.min(lo_x, cx);
+			lo_y = Math.min(lo_y, cy);
+			hi_x = Math.max(hi_x, cx);
+			hi_y = Math.max(hi_y, cy);
+		}
+		float scale_x = (hi_x > lo_x) ? MORTON_MAX / (hi_x - lo_x) : 0f;
+		float scale_y = (hi_y > lo_y) ? MORTON_MAX / (hi_y - lo_y) : 0f;
+
+		for (int i = 0; i < n; i++){
+			int id = bounds.getId(i);
+			float cx = (bounds.min_x[id] + bounds.max_x[id]) * 0.5f;
+			float cy = (bounds.min_y[id] + bounds.max_y[id]) * 0.5f;
+			int qx = Math.min(MORTON_MAX, Math.max(0, (int)((cx - lo_x) * scale_x)));
+			int qy = Math.min(MORTON_MAX, Math.max(0, (int)((cy - lo_y) * scale_y)));
+			keys[i] = ((long)((spreadBits(qx) << 1) | spreadBits(qy)) << 32) | id;
+		}
+		sortKeys(n);
+
+		for (int k = 0; k < n; k++){
+			int id = (int)keys[k];
+			codes[k] = (int)(keys[k] >>> 32);
+			leaf_ids[k] = id;
+			leaf_min_x[k] = bounds.min_x[id];
+			leaf_min_y[k] = bounds.min_y[id];
+			leaf_max_x[k] = bounds.max_x[id];
+			leaf_max_y[k] = bounds.max_y[id];
+		}
+		leaf_count = n;
+	}
+
+	/** Spreads the low MORTON_BITS bits of v out to the even bits of the result */
+	private static int spreadBits(int v){
+		v &= MORTON_MAX;
+		v = (v | (v << 8)) & 0x00FF00FF;
+		v = (v | (v << 4)) & 0x0F0F0F0F;
+		v = (v | (v << 2)) & 0x33333333;
+		v = (v | (v << 1)) & 0x55555555;
+		return v;
+	}
+
+	/**
+	 * Sorts keys[0, n) by Morton code (the upper 32 bits) with an LSD radix sort; leaves with equal codes keep
+	 * the snapshot's order. Never allocates once keys_scratch has grown to fit.
+	 */
+	private void sortKeys(int n){
+		long[] src = keys;
+		long[] dst = keys_scratch;
+		for (int shift = 32; shift < 64; shift += 8){
+			Arrays.fill(radix_counts, 0);
+			for (int i = 0; i < n; i++){
+				radix_counts[(int)(src[i] >>> shift) & 0xFF]++;
+			}
+			int total = 0;
+			for (int d = 0; d < 256; d++){
+				int c = radix_counts[d];
+				radix_counts[d] = total;
+				total += c;
+			}
+			for (int i = 0; i < n; i++){
+				dst[radix_counts[(int)(src[i] >>> shift) & 0xFF]++] = src[i];
+			}
+
+			long[] t = src; src = dst; dst = t;
+		}
+
+		//an even number of passes leaves the result back in keys
+		assert src == keys;
+	}
+
+	/** Builds internal nodes [chunk*CHUNK_SIZE, (chunk + 1)*CHUNK_SIZE); each only reads the sorted codes */
+	private void buildChunk(int chunk){
+		int end = Math.min((chunk + 1) * CHUNK_SIZE, leaf_count - 1);
+		for (int i = chunk * CHUNK_SIZE; i < end; i++){
+			buildNode(i);
+		}
+	}
+
+	/**
+	 * Finds internal node i's range of leaves and where it splits (Karras 2012). The range extends from leaf i
+	 * towards whichever neighbour shares the longer code prefix with it, for as long as leaves share more of a
+	 * prefix with leaf i than the other neighbour does; it splits where the prefix shared across it ends.
+	 */
+	private void buildNode(int i){
+		int d = (prefix(i, i + 1) - prefix(i, i - 1) >= 0) ? 1 : -1;
+
+		//the far end of the range, by exponential then binary search
+		int prefix_min = prefix(i, i - d);
+		int l_max = 2;
+		while (prefix(i, i + l_max*d) > prefix_min){
+			l_max <<= 1;
+		}
+		int l = 0;
+		for (int t = l_max >> 1; t >= 1; t >>= 1){
+			if (prefix(i, i + (l + t)*d) > prefix_min){
+				l += t;
+			}
+		}
+		int j = i + l*d;
+
+		//the split: the last leaf sharing more than the whole range's prefix with leaf i
+		int prefix_node = prefix(i, j);
+		int s = 0;
+		for (int t = (l + 1) >> 1; ; t = (t + 1) >> 1){
+			if (prefix(i, i + (s + t)*d) > prefix_node){
+				s += t;
+			}
+			if (t == 1){
+				break;
+			}
+		}
+		int split = i + s*d + Math.min(d, 0);
+
+		first[i] = Math.min(i, j);
+		last[i] = Math.max(i, j);
+		left[i] = (first[i] == split) ? ~split : split;
+		right[i] = (last[i] == split + 1) ? ~(split + 1) : split + 1;
+	}
+
+	/**
+	 * Returns the length of the common prefix of leaves i and j's codes, or -1 if j is not a leaf. Equal codes
+	 * are told apart by leaf index, as if each code had its index appended.
+	 */
+	private int prefix(int i, int j){
+		if (j < 0 || j >= leaf_count){
+			return -1;
+		}
+		int x = codes[i] ^ codes[j];
+		return (x != 0) ? Integer.numberOfLeadingZeros(x) : 32 + Integer.numberOfLeadingZeros(i ^ j);
+	}
+
+	/** Fills in the boxes of node and every internal node under it; forks big subtrees if parallel */
+	private void refit(int node, boolean parallel){
+		int l = left[node], r = right[node];
+		if (parallel && l >= 0 && r >= 0 && last[node] - first[node] >= CHUNK_SIZE){
+			ForkJoinTask.invokeAll( new RefitTask(l), new RefitTask(r) );
+		} else {
+			if (l >= 0){
+				refit(l, parallel);
+			}
+			if (r >= 0){
+				refit(r, parallel);
+			}
+		}
+
+		node_min_x[node] = Math.min( (l < 0) ? leaf_min_x[~l] : node_min_x[l], (r < 0) ? leaf_min_x[~r] : node_min_x[r] );
+		node_min_y[node] = Math.min( (l < 0) ? leaf_min_y[~l] : node_min_y[l], (r < 0) ? leaf_min_y[~r] : node_min_y[r] );
+		node_max_x[node] = Math.max( (l < 0) ? leaf_max_x[~l] : node_max_x[l], (r < 0) ? leaf_max_x[~r] : node_max_x[r] );
+		node_max_y[node] = Math.max( (l < 0) ? leaf_max_y[~l] : node_max_y[l], (r < 0) ? leaf_max_y[~r] : node_max_y[r] );
+	}
+
+	//--------------------
+	//--| Pair Finding |--
+	//--------------------
+
+	/**
+	 * Finds the pairs of leaves [chunk*CHUNK_SIZE, (chunk + 1)*CHUNK_SIZE) into chunk_pairs[chunk]. Leaf k
+	 * only looks for leaves after it, and skips every subtree which ends at or before it, so each pair is found
+	 * once.
+	 */
+	private void pairChunk(int chunk){
+		PairList pairs = chunk_pairs[chunk];
+		int[] stack = chunk_stacks[chunk];
+		pairs.clear();
+
+		int end = Math.min((chunk + 1) * CHUNK_SIZE, leaf_count);
+		for (int k = chunk * CHUNK_SIZE; k < end; k++){
+			int a = leaf_ids[k];
+			float min_x = leaf_min_x[k], min_y = leaf_min_y[k];
+			float max_x = leaf_max_x[k], max_y = leaf_max_y[k];
+
+			int top = 0;
+			stack[top++] = 0;
+			while (top > 0){
+				int node = stack[--top];
+				if (   last[node] <= k
+					|| node_min_x[node] > max_x || min_x > node_max_x[node]
+					|| node_min_y[node] > max_y || min_y > node_max_y[node]
+					){
+					continue;
+				}
+				for (int child = left[node], c = 0; c < 2; child = right[node], c++){
+					if (child < 0){
+						int leaf = ~child;
+						if (leaf > k && leafOverlaps(leaf, min_x, min_y, max_x, max_y) && bounds.canCollide(a, leaf_ids[leaf])){
+							pairs.add(a, leaf_ids[leaf]);
+						}
+					} else {
+						if (top == stack.length){
+							stack = Arrays.copyOf(stack, top * 2);
+							chunk_stacks[chunk] = stack;
+						}
+						stack[top++] = child;
+					}
+				}
+			}
+		}
+	}
+
+	/** Returns true if leaf's box overlaps the input box (touching counts) */
+	private boolean leafOverlaps(int leaf, float min_x, float min_y, float max_x, float max_y){
+		return leaf_min_x[leaf] <= max_x && min_x <= leaf_max_x[leaf]
+			&& leaf_min_y[leaf] <= max_y && min_y <= leaf_max_y[leaf];
+	}
+
+	//--------------------------
+	//--| Test/Debug Methods |--
+	//--------------------------
+
+	/**
+	 * Sandbox driver: moves every box every frame, and prints the time per findPairs() of each Broadphase at
+	 * 1k to 100k boxes, with the number of pairs each found; exits with status 1 if any two disagree.
+	 */
+	public static void main(String[] args){
+		String[] names = { "SweepAndPrune", "SpatialHashGrid", "DynamicAABBTree", "SortedSweep", "LinearBVH(serial)", "LinearBVH" };
+		boolean agreed = true;
+		for (int n = 1000; n <= 100000; n *= 10){
+			System.out.println(n + " boxes:");
+			int expected_pairs = -1;
+			for (int b = 0; b < names.length; b++){
+				Broadphase broadphase;
+				switch (b){
+				case 0:  broadphase = new SweepAndPrune();    break;
+				case 1:  broadphase = new SpatialHashGrid();  break;
+				case 2:  broadphase = new DynamicAABBTree();  break;
+				case 3:  broadphase = new SortedSweep();      break;
+				case 4:  broadphase = new LinearBVH(false);   break;
+				default: broadphase = new LinearBVH(true);    break;
+				}
+
+				//12-32 unit boxes drifting up to 3 units a frame, at about the same density for every n
+				java.util.Random rand = new java.util.Random(n);
+				float world = (float)Math.sqrt(n) * 30f;
+				AABBSnapshot snapshot = new AABBSnapshot(n);
+				org.newdawn.slick.geom.Rectangle[] boxes = new org.newdawn.slick.geom.Rectangle[n];
+				float[] velocities = new float[2*n];
+				for (int i = 0; i < n; i++){
+					float size = 12f + rand.nextFloat() * 20f;
+					boxes[i] = new org.newdawn.slick.geom.Rectangle(rand.nextFloat() * world, rand.nextFloat() * world, size, size);
+					velocities[2*i] = rand.nextFloat() * 6f - 3f;
+					velocities[2*i + 1] = rand.nextFloat() * 6f - 3f;
+					snapshot.add(i, boxes[i]);
+					broadphase.add(i, snapshot);
+				}
+
+				PairList pairs = new PairList();
+				int frames = 20;
+				long elapsed = 0;
+				for (int f = 0; f < frames; f++){
+					for (int i = 0; i < n; i++){
+						boxes[i].setLocation(boxes[i].getX() + velocities[2*i], boxes[i].getY() + velocities[2*i + 1]);
+						snapshot.set(i, boxes[i]);
+					}
+					pairs.clear();
+					long start = System.nanoTime();
+					broadphase.findPairs(snapshot, pairs);
+					if (f >= frames / 2){
+						elapsed += System.nanoTime() - start; //the first half warms up the JIT
+					}
+				}
+				System.out.println( "    " + names[b] + ": " + (elapsed / (frames - frames/2) / 1000) + " us/frame, " + pairs.size() + " pairs" );
+				if (expected_pairs < 0){
+					expected_pairs = pairs.size();
+				} else if (pairs.size() != expected_pairs){
+					System.out.println( "    MISMATCH: " + names[b] + " found " + pairs.size() + ", " + names[0] + " " + expected_pairs );
+					agreed = false;
+				}
+			}
+		}
+		if (!agreed){
+			System.exit(1);
+		}
+	}
+
+}
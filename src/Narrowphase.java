@@ -0,0 +1,641 @@
+/**
+ * Narrowphase.java
+ *
+ * Precision collision-detection between two Shapes. Almost everything we collide is a Circle (Asteroid,
+ * Bullet) or a small convex Polygon (PlayerShip, AITest, AIMark2), so those are handled analytically:
+ *     - circle/circle:   distance between centers
+ *     - circle/convex:   closest point on the polygon's boundary
+ *     - convex/convex:   separating-axis test
+ * Containment is worked out in the same pass. Anything else (concave polygons, lines, ...) falls back to
+ * Slick's generic intersects()/contains(), which is slower and allocates.
+ *
+ * None of the analytic tests allocate.
+ *
+ * Author: Wesley Gydé
+ */
+
+import org.newdawn.slick.geom.Circle;
+import org.newdawn.slick.geom.Shape;
+
+public class Narrowphase{
+
+	//test() results
+	public static final int SEPARATE     = 0;
+	public static final int INTERSECT    = 1;
+	public static final int A_CONTAINS_B = 2;
+	public static final int B_CONTAINS_A = 3;
+
+	//Shape kinds, see classify()
+	public static final int KIND_CIRCLE  = 0;
+	public static final int KIND_CONVEX  = 1;
+	public static final int KIND_GENERIC = 2;
+
+	private Narrowphase(){}
+
+	//----------------------
+	//--| Classification |--
+	//----------------------
+
+	/**
+	 * Returns the kind of s, which selects the test used for it. Rigid motion does not change a Shape's
+	 * kind, so this only needs to be called again if a Shape is replaced by one of a different class.
+	 */
+	public static int classify(Shape s){
+		if (s instanceof Circle){
+			return KIND_CIRCLE;
+		}
+		return isConvex(s.getPoints()) ? KIND_CONVEX : KIND_GENERIC;
+	}
+
+	/** Returns true if the input points (x0, y0, x1, y1, ...) form a simple, convex polygon */
+	public static boolean isConvex(float[] pts){
+		int n = pts.length / 2;
+		if (n < 3){
+			return false;
+		}
+
+		int turn_sign = 0;
+		int x_flips = 0;
+		int last_dx_sign = 0;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1) % n;
+			int k = (i + 2) % n;
+			float ex = pts[2*j] - pts[2*i], ey = pts[2*j + 1] - pts[2*i + 1];
+			float fx = pts[2*k] - pts[2*j], fy = pts[2*k + 1] - pts[2*j + 1];
+
+			//every corner must turn the same way...
+			float cross = ex*fy - ey*fx;
+			if (cross != 0f){
+				int sign = (cross > 0f) ? 1 : -1;
+				if (turn_sign == 0){
+					turn_sign = sign;
+				} else if (sign != turn_sign){
+					return false;
+				}
+			}
+
+			//...and the boundary may only go around once (x direction changes exactly twice)
+			if (ex != 0f){
+				int dx_sign = (ex > 0f) ? 1 : -1;
+				if (last_dx_sign != 0 && dx_sign != last_dx_sign){
+					x_flips++;
+				}
+				last_dx_sign = dx_sign;
+			}
+		}
+
+		//account for the flip between the last and first edges
+		for (int i = 0; i < n; i++){
+			float ex = pts[2*((i + 1) % n)] - pts[2*i];
+			if (ex != 0f){
+				if ((ex > 0f ? 1 : -1) != last_dx_sign){
+					x_flips++;
+				}
+				break;
+			}
+		}
+
+		return turn_sign != 0 && x_flips <= 2;
+	}
+
+	//---------------
+	//--| Testing |--
+	//---------------
+
+	/**
+	 * Performs precision collision-detection between a and b.
+	 *
+	 * @param a      a Shape
+	 * @param kind_a a's kind, from classify()
+	 * @param b      another Shape
+	 * @param kind_b b's kind, from classify()
+	 * @return SEPARATE, INTERSECT, A_CONTAINS_B or B_CONTAINS_A
+	 */
+	public static int test(Shape a, int kind_a, Shape b, int kind_b){
+		if (kind_a == KIND_GENERIC || kind_b == KIND_GENERIC){
+			return testGeneric(a, b);
+		}
+
+		if (kind_a == KIND_CIRCLE){
+			if (kind_b == KIND_CIRCLE){
+				return testCircles((Circle)a, (Circle)b);
+			}
+			return flip( testCirclePolygon((Circle)a, b.getPoints()) );
+		}
+
+		if (kind_b == KIND_CIRCLE){
+			return testCirclePolygon((Circle)b, a.getPoints());
+		}
+		return testPolygons(a.getPoints(), b.getPoints());
+	}
+
+	/** Slick's generic path; used for unknown and concave Shapes */
+	private static int testGeneric(Shape a, Shape b){
+		if (a.contains(b)){
+			return A_CONTAINS_B;
+		}
+		if (b.contains(a)){
+			return B_CONTAINS_A;
+		}
+		return a.intersects(b) ? INTERSECT : SEPARATE;
+	}
+
+	private static int testCircles(Circle a, Circle b){
+		float dx = b.getCenterX() - a.getCenterX();
+		float dy = b.getCenterY() - a.getCenterY();
+		float dist_sq = dx*dx + dy*dy;
+		float ra = a.getRadius(), rb = b.getRadius();
+
+		if (dist_sq > (ra + rb)*(ra + rb)){
+			return SEPARATE;
+		}
+		if (ra >= rb && dist_sq <= (ra - rb)*(ra - rb)){
+			return A_CONTAINS_B;
+		}
+		if (rb > ra && dist_sq <= (rb - ra)*(rb - ra)){
+			return B_CONTAINS_A;
+		}
+		return INTERSECT;
+	}
+
+	/**
+	 * Tests circle c against the convex polygon pts.
+	 *
+	 * @return SEPARATE, INTERSECT, A_CONTAINS_B (polygon contains circle) or B_CONTAINS_A (circle contains polygon)
+	 */
+	private static int testCirclePolygon(Circle c, float[] pts){
+		float cx = c.getCenterX(), cy = c.getCenterY();
+		float r = c.getRadius();
+		float r_sq = r*r;
+		int n = pts.length / 2;
+
+		int side = 0;
+		boolean inside = true;
+		boolean all_vertices_in_circle = true;
+		float min_edge_dist_sq = Float.MAX_VALUE;
+
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			float x0 = pts[2*i], y0 = pts[2*i + 1];
+			float ex = pts[2*j] - x0, ey = pts[2*j + 1] - y0;
+			float px = cx - x0, py = cy - y0;
+
+			//which side of this edge is the center on?
+			float cross = ex*py - ey*px;
+			if (cross != 0f){
+				int s = (cross > 0f) ? 1 : -1;
+				if (side == 0){
+					side = s;
+				} else if (s != side){
+					inside = false;
+				}
+			}
+
+			//distance from the center to this edge
+			float len_sq = ex*ex + ey*ey;
+			float t = (len_sq > 0f) ? Math.max(0f, Math.min(1f, (px*ex + py*ey) / len_sq)) : 0f;
+			float qx = px - t*ex, qy = py - t*ey;
+			min_edge_dist_sq = Math.min(min_edge_dist_sq, qx*qx + qy*qy);
+
+			if (px*px + py*py > r_sq){
+				all_vertices_in_circle = false;
+			}
+		}
+
+		if (!inside && min_edge_dist_sq > r_sq){
+			return SEPARATE;
+		}
+		if (inside && min_edge_dist_sq >= r_sq){
+			return A_CONTAINS_B;
+		}
+		return all_vertices_in_circle ? B_CONTAINS_A : INTERSECT;
+	}
+
+	/** Separating-axis test between the convex polygons a and b */
+	private static int testPolygons(float[] a, float[] b){
+		boolean b_in_a = true;
+		boolean a_in_b = true;
+
+		//a's edge normals
+		int n = a.length / 2;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			float ax = -(a[2*j + 1] - a[2*i + 1]);
+			float ay = a[2*j] - a[2*i];
+
+			float min_a = Float.MAX_VALUE, max_a = -Float.MAX_VALUE;
+			for (int k = 0; k < a.length; k += 2){
+				float p = a[k]*ax + a[k + 1]*ay;
+				min_a = Math.min(min_a, p);
+				max_a = Math.max(max_a, p);
+			}
+			float min_b = Float.MAX_VALUE, max_b = -Float.MAX_VALUE;
+			for (int k = 0; k < b.length; k += 2){
+				float p = b[k]*ax + b[k + 1]*ay;
+				min_b = Math.min(min_b, p);
+				max_b = Math.max(max_b, p);
+			}
+
+			if (max_a < min_b || max_b < min_a){
+				return SEPARATE;
+			}
+
+			//b lies within every one of a's half-planes only if it projects inside a on every a-axis
+			b_in_a &= (min_b >= min_a && max_b <= max_a);
+		}
+
+		//b's edge normals
+		n = b.length / 2;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			float ax = -(b[2*j + 1] - b[2*i + 1]);
+			float ay = b[2*j] - b[2*i];
+
+			float min_a = Float.MAX_VALUE, max_a = -Float.MAX_VALUE;
+			for (int k = 0; k < a.length; k += 2){
+				float p = a[k]*ax + a[k + 1]*ay;
+				min_a = Math.min(min_a, p);
+				max_a = Math.max(max_a, p);
+			}
+			float min_b = Float.MAX_VALUE, max_b = -Float.MAX_VALUE;
+			for (int k = 0; k < b.length; k += 2){
+				float p = b[k]*ax + b[k + 1]*ay;
+				min_b = Math.min(min_b, p);
+				max_b = Math.max(max_b, p);
+			}
+
+			if (max_a < min_b || max_b < min_a){
+				return SEPARATE;
+			}
+
+			a_in_b &= (min_a >= min_b && max_a <= max_b);
+		}
+
+		if (b_in_a){
+			return A_CONTAINS_B;
+		}
+		if (a_in_b){
+			return B_CONTAINS_A;
+		}
+		return INTERSECT;
+	}
+
+	//------------------
+	//--| Separation |--
+	//------------------
+	//bounds on how far two Shapes may move before test() could give a different answer; only for circles and
+	//convex polygons, whose every point moves no further than their furthest-moving corner (or center and radius)
+
+	/**
+	 * Returns a lower bound on the distance between a and b, for a pair which test() found SEPARATE. While the
+	 * two Shapes have not moved any point by more than this between them, the pair is still SEPARATE.
+	 *
+	 * @param a      a Shape
+	 * @param kind_a a's kind, from classify(); must not be KIND_GENERIC
+	 * @param b      another Shape
+	 * @param kind_b b's kind, from classify(); must not be KIND_GENERIC
+	 * @return the lower bound, or 0 if none was found
+	 */
+	public static float separation(Shape a, int kind_a, Shape b, int kind_b){
+		if (kind_a == KIND_CIRCLE){
+			Circle ca = (Circle)a;
+			if (kind_b == KIND_CIRCLE){
+				Circle cb = (Circle)b;
+				float dx = cb.getCenterX() - ca.getCenterX();
+				float dy = cb.getCenterY() - ca.getCenterY();
+				return Math.max(0f, (float)Math.sqrt(dx*dx + dy*dy) - ca.getRadius() - cb.getRadius());
+			}
+			return Math.max(0f, -depth(b.getPoints(), ca.getCenterX(), ca.getCenterY()) - ca.getRadius());
+		}
+
+		if (kind_b == KIND_CIRCLE){
+			return separation(b, kind_b, a, kind_a);
+		}
+		float gap = separationAlongNormals(a.getPoints(), b.getPoints());
+		return (gap > 0f) ? gap : separationAlongNormals(b.getPoints(), a.getPoints());
+	}
+
+	/**
+	 * Returns a lower bound on how far inside both a and b some point is, for a pair which test() found
+	 * touching; each Shape's center, and the point halfway between them, are tried as that point. While the two Shapes have not moved any point by
+	 * more than this between them, the pair still touches.
+	 *
+	 * @param a      a Shape
+	 * @param kind_a a's kind, from classify(); must not be KIND_GENERIC
+	 * @param b      another Shape
+	 * @param kind_b b's kind, from classify(); must not be KIND_GENERIC
+	 * @return the lower bound, or 0 if none was found
+	 */
+	public static float overlap(Shape a, int kind_a, Shape b, int kind_b){
+		float ax = a.getCenterX(), ay = a.getCenterY();
+		float bx = b.getCenterX(), by = b.getCenterY();
+		float at_a = Math.min( depth(a, kind_a, ax, ay), depth(b, kind_b, ax, ay) );
+		float at_b = Math.min( depth(a, kind_a, bx, by), depth(b, kind_b, bx, by) );
+		float mx = (ax + bx) * 0.5f, my = (ay + by) * 0.5f;
+		float at_mid = Math.min( depth(a, kind_a, mx, my), depth(b, kind_b, mx, my) );
+		return Math.max( 0f, Math.max(at_mid, Math.max(at_a, at_b)) );
+	}
+
+	/** Returns how far (px, py) is inside s, or minus how far it is outside a polygon s (only a bound for circles) */
+	private static float depth(Shape s, int kind, float px, float py){
+		if (kind == KIND_CIRCLE){
+			Circle c = (Circle)s;
+			float dx = px - c.getCenterX(), dy = py - c.getCenterY();
+			return c.getRadius() - (float)Math.sqrt(dx*dx + dy*dy);
+		}
+		return depth(s.getPoints(), px, py);
+	}
+
+	/**
+	 * Returns how far (px, py) is inside the convex polygon pts, or minus (at least) how far it is outside; that
+	 * is, the least signed distance from the point to the lines through pts's edges
+	 */
+	private static float depth(float[] pts, float px, float py){
+		int n = pts.length / 2;
+
+		//which side is inside depends on the winding
+		float area = 0f;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			area += pts[2*i]*pts[2*j + 1] - pts[2*j]*pts[2*i + 1];
+		}
+		float winding = (area < 0f) ? -1f : 1f;
+
+		float least = Float.MAX_VALUE;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			float ex = pts[2*j] - pts[2*i], ey = pts[2*j + 1] - pts[2*i + 1];
+			float len = (float)Math.sqrt(ex*ex + ey*ey);
+			if (len > 0f){
+				float cross = ex*(py - pts[2*i + 1]) - ey*(px - pts[2*i]);
+				least = Math.min(least, winding * cross / len);
+			}
+		}
+		return least;
+	}
+
+	/**
+	 * Returns the gap between the projections of a and b onto the first of a's edge normals which separates
+	 * them (the same axis testPolygons() stops at), or 0 if none does. Projection never lengthens a distance, so
+	 * this is a lower bound on the distance between the two polygons.
+	 */
+	private static float separationAlongNormals(float[] a, float[] b){
+		int n = a.length / 2;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			float ax = -(a[2*j + 1] - a[2*i + 1]);
+			float ay = a[2*j] - a[2*i];
+
+			float min_a = Float.MAX_VALUE, max_a = -Float.MAX_VALUE;
+			for (int k = 0; k < a.length; k += 2){
+				float p = a[k]*ax + a[k + 1]*ay;
+				min_a = Math.min(min_a, p);
+				max_a = Math.max(max_a, p);
+			}
+			float min_b = Float.MAX_VALUE, max_b = -Float.MAX_VALUE;
+			for (int k = 0; k < b.length; k += 2){
+				float p = b[k]*ax + b[k + 1]*ay;
+				min_b = Math.min(min_b, p);
+				max_b = Math.max(max_b, p);
+			}
+
+			float gap = Math.max(min_b - max_a, min_a - max_b);
+			if (gap > 0f){
+				return gap / (float)Math.sqrt(ax*ax + ay*ay);
+			}
+		}
+		return 0f;
+	}
+
+	//-----------------------
+	//--| Swept Detection |--
+	//-----------------------
+
+	/** Returned by timeOfImpact() if there was no impact */
+	public static final float NO_IMPACT = -1f;
+
+	/**
+	 * Finds when, during the last frame, a first touched b. a is at its current position, having moved
+	 * by (dx, dy) since the last frame; b is treated as having stood still at its current position (pass
+	 * the relative motion if both moved).
+	 *
+	 * A circle is swept exactly, against circles and convex polygons. Any other Shape is swept as its
+	 * bounding circle (about its center), which may report impacts a little early, or for near misses.
+	 *
+	 * @return the fraction of the frame's motion, in [0,1], at which the two first touched, or NO_IMPACT
+	 */
+	public static float timeOfImpact(Shape a, int kind_a, float dx, float dy, Shape b, int kind_b){
+		float cx = a.getCenterX(), cy = a.getCenterY();
+		float r = (kind_a == KIND_CIRCLE) ? ((Circle)a).getRadius() : boundingRadius(a);
+
+		//sweep a's circle from where it was to where it is
+		float x0 = cx - dx, y0 = cy - dy;
+
+		if (kind_b == KIND_CONVEX){
+			return sweepCirclePolygon(x0, y0, dx, dy, r, b.getPoints());
+		}
+		float rb = (kind_b == KIND_CIRCLE) ? ((Circle)b).getRadius() : boundingRadius(b);
+		return sweepCircle(x0, y0, dx, dy, b.getCenterX(), b.getCenterY(), r + rb);
+	}
+
+	/** Returns the distance from s's center to its furthest point */
+	public static float boundingRadius(Shape s){
+		float cx = s.getCenterX(), cy = s.getCenterY();
+		float[] pts = s.getPoints();
+		float max_sq = 0f;
+		for (int i = 0; i < pts.length; i += 2){
+			float px = pts[i] - cx, py = pts[i + 1] - cy;
+			max_sq = Math.max(max_sq, px*px + py*py);
+		}
+		return (float)Math.sqrt(max_sq);
+	}
+
+	/** Returns the first t in [0,1] at which point (x0, y0) + t(dx, dy) is within r of (cx, cy), or NO_IMPACT */
+	private static float sweepCircle(float x0, float y0, float dx, float dy, float cx, float cy, float r){
+		float mx = x0 - cx, my = y0 - cy;
+		float c = mx*mx + my*my - r*r;
+		if (c <= 0f){
+			return 0f; //touching at the start of the frame
+		}
+
+		float a = dx*dx + dy*dy;
+		float b = mx*dx + my*dy;
+		if (a == 0f || b >= 0f){
+			return NO_IMPACT; //not moving, or moving away
+		}
+
+		float disc = b*b - a*c;
+		if (disc < 0f){
+			return NO_IMPACT;
+		}
+		float t = (-b - (float)Math.sqrt(disc)) / a;
+		return (t <= 1f) ? Math.max(t, 0f) : NO_IMPACT;
+	}
+
+	/**
+	 * Returns the first t in [0,1] at which a circle of radius r, centered at (x0, y0) + t(dx, dy), touches
+	 * the convex polygon pts, or NO_IMPACT. This is a ray cast against the polygon grown by r: each edge
+	 * pushed out by r, joined by circles of radius r at each vertex.
+	 */
+	private static float sweepCirclePolygon(float x0, float y0, float dx, float dy, float r, float[] pts){
+		int n = pts.length / 2;
+
+		//winding decides which edge normal points outwards
+		float area = 0f;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			area += pts[2*i]*pts[2*j + 1] - pts[2*j]*pts[2*i + 1];
+		}
+		float outward = (area > 0f) ? 1f : -1f;
+
+		boolean inside = true;
+		float best = NO_IMPACT;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			float ax = pts[2*i], ay = pts[2*i + 1];
+			float ex = pts[2*j] - ax, ey = pts[2*j + 1] - ay;
+			float len = (float)Math.sqrt(ex*ex + ey*ey);
+			if (len == 0f){
+				continue;
+			}
+			float nx = outward * ey / len, ny = -outward * ex / len;
+
+			//signed distance from the start point to this edge's line
+			float dist = (x0 - ax)*nx + (y0 - ay)*ny;
+			if (dist > r){
+				inside = false;
+
+				//ray against the pushed-out edge
+				float dn = dx*nx + dy*ny;
+				if (dn < 0f){
+					float t = (r - dist) / dn;
+					if (t <= 1f){
+						float hx = x0 + t*dx - ax, hy = y0 + t*dy - ay;
+						float u = (hx*ex + hy*ey) / (len*len);
+						if (u >= 0f && u <= 1f){
+							best = earliest(best, t);
+						}
+					}
+				}
+			} else if (dist > 0f){
+				inside = false;
+
+				//within r of this edge at the start of the frame?
+				float u = ((x0 - ax)*ex + (y0 - ay)*ey) / (len*len);
+				if (u >= 0f && u <= 1f){
+					best = 0f;
+				}
+			}
+
+			//ray against the rounded corner
+			best = earliest(best, sweepCircle(x0, y0, dx, dy, ax, ay, r));
+		}
+
+		//already overlapping at the start of the frame
+		if (inside){
+			return 0f;
+		}
+		return best;
+	}
+
+	//-----------------------
+	//--| Spatial Queries |--
+	//-----------------------
+
+	/** Returns true if s (of the input kind) touches the circle of radius r about (cx, cy) */
+	public static boolean touchesCircle(Shape s, int kind, float cx, float cy, float r){
+		if (kind == KIND_CIRCLE){
+			float dx = s.getCenterX() - cx, dy = s.getCenterY() - cy;
+			float rr = r + ((Circle)s).getRadius();
+			return dx*dx + dy*dy <= rr*rr;
+		}
+		if (kind == KIND_CONVEX){
+			return sweepCirclePolygon(cx, cy, 0f, 0f, r, s.getPoints()) == 0f;
+		}
+
+		if (s.contains(cx, cy)){
+			return true;
+		}
+		float[] pts = s.getPoints();
+		int n = pts.length / 2;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			float x0 = pts[2*i], y0 = pts[2*i + 1];
+			float ex = pts[2*j] - x0, ey = pts[2*j + 1] - y0;
+			float px = cx - x0, py = cy - y0;
+			float len_sq = ex*ex + ey*ey;
+			float t = (len_sq > 0f) ? Math.max(0f, Math.min(1f, (px*ex + py*ey) / len_sq)) : 0f;
+			float qx = px - t*ex, qy = py - t*ey;
+			if (qx*qx + qy*qy <= r*r){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Casts the ray (x0, y0) + t(dx, dy), 0 <= t <= 1, against s (of the input kind).
+	 *
+	 * @return the first t at which the ray touches s (0 if it starts inside s), or NO_IMPACT
+	 */
+	public static float raycast(Shape s, int kind, float x0, float y0, float dx, float dy){
+		if (kind == KIND_CIRCLE){
+			return sweepCircle(x0, y0, dx, dy, s.getCenterX(), s.getCenterY(), ((Circle)s).getRadius());
+		}
+		if (kind == KIND_CONVEX){
+			return sweepCirclePolygon(x0, y0, dx, dy, 0f, s.getPoints());
+		}
+
+		if (s.contains(x0, y0)){
+			return 0f;
+		}
+		float[] pts = s.getPoints();
+		int n = pts.length / 2;
+		float best = NO_IMPACT;
+		for (int i = 0; i < n; i++){
+			int j = (i + 1 == n) ? 0 : i + 1;
+			float ax = pts[2*i], ay = pts[2*i + 1];
+			float ex = pts[2*j] - ax, ey = pts[2*j + 1] - ay;
+
+			//solve (x0, y0) + t(dx, dy) = (ax, ay) + u(ex, ey)
+			float denom = dx*ey - dy*ex;
+			if (denom == 0f){
+				continue; //parallel
+			}
+			float wx = ax - x0, wy = ay - y0;
+			float t = (wx*ey - wy*ex) / denom;
+			float u = (wx*dy - wy*dx) / denom;
+			if (t >= 0f && t <= 1f && u >= 0f && u <= 1f){
+				best = earliest(best, t);
+			}
+		}
+		return best;
+	}
+
+	//---------------
+	//--| Helpers |--
+	//---------------
+
+	/** Returns the earlier of two times of impact, either of which may be NO_IMPACT */
+	private static float earliest(float t0, float t1){
+		if (t0 == NO_IMPACT){
+			return t1;
+		}
+		if (t1 == NO_IMPACT){
+			return t0;
+		}
+		return Math.min(t0, t1);
+	}
+
+	/** Swaps the roles of a and b in a test() result */
+	private static int flip(int result){
+		if (result == A_CONTAINS_B){
+			return B_CONTAINS_A;
+		}
+		if (result == B_CONTAINS_A){
+			return A_CONTAINS_B;
+		}
+		return result;
+	}
+
+}
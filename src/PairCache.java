@@ -0,0 +1,144 @@
+/**
+ * PairCache.java
+ *
+ * Remembers, for pairs of ids, how far apart their Shapes were when they were last tested (or, as a negative
+ * gap, how far they overlapped), and how far each had travelled by then (see CollisionLayer). Stored in an
+ * open-addressing hash table of primitive arrays, like PairSet, so nothing is allocated once the table has
+ * grown to its working size.
+ *
+ * Entries are never removed one at a time: a CollisionLayer keeps two PairCaches, and each frame copies the
+ * entries which are still useful from one into the other, then clears the first.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+
+public class PairCache{
+
+	/** Returned by find() when a pair is not present */
+	public static final int NOT_FOUND = -1;
+
+	private long[] keys;
+	private float[] gaps;
+	private double[] travels_a; //travel of the pair's lower id
+	private double[] travels_b; //travel of the pair's higher id
+	private int mask;
+	private int size;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public PairCache(){
+		keys = new long[128];
+		Arrays.fill(keys, PairSet.EMPTY);
+		gaps = new float[128];
+		travels_a = new double[128];
+		travels_b = new double[128];
+		mask = 127;
+		size = 0;
+	}
+
+	//----------------------
+	//--| Map Operations |--
+	//----------------------
+
+	/**
+	 * Stores an entry for the pair (a, b), replacing any already present
+	 *
+	 * @param gap      how far apart the Shapes of a and b were (at least), or minus how far they overlapped
+	 * @param travel_a how far a had travelled when gap was measured
+	 * @param travel_b how far b had travelled when gap was measured
+	 */
+	public void put(int a, int b, float gap, double travel_a, double travel_b){
+		if (a > b){
+			int t = a; a = b; b = t;
+			double u = travel_a; travel_a = travel_b; travel_b = u;
+		}
+		long key = PairSet.key(a, b);
+		int slot = slotFor(key);
+		if (keys[slot] != key){
+			keys[slot] = key;
+			size++;
+		}
+		gaps[slot] = gap;
+		travels_a[slot] = travel_a;
+		travels_b[slot] = travel_b;
+
+		if (size * 2 > keys.length){
+			grow();
+		}
+	}
+
+	/** Returns the slot of the pair (a, b), or NOT_FOUND */
+	public int find(int a, int b){
+		long key = PairSet.key(a, b);
+		int slot = slotFor(key);
+		return (keys[slot] == key) ? slot : NOT_FOUND;
+	}
+
+	/** Removes every entry, keeping the table for reuse */
+	public void clear(){
+		if (size > 0){
+			Arrays.fill(keys, PairSet.EMPTY);
+			size = 0;
+		}
+	}
+
+	public int size(){ return size; }
+
+	//-----------------------
+	//--| Entry Accessors |--
+	//-----------------------
+	//slots are only valid until the next put() or clear()
+
+	public float getGap(int slot){ return gaps[slot]; }
+
+	/** Returns the recorded travel of the input id, which must be one of the pair's ids */
+	public double getTravel(int slot, int id){
+		return (id == PairSet.lowerId(keys[slot])) ? travels_a[slot] : travels_b[slot];
+	}
+
+	//---------------
+	//--| Helpers |--
+	//---------------
+
+	/** Returns the slot holding key, or the empty slot where it would be inserted */
+	private int slotFor(long key){
+		int slot = hash(key);
+		while (keys[slot] != PairSet.EMPTY && keys[slot] != key){
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> 32) & mask;
+	}
+
+	private void grow(){
+		long[] old_keys = keys;
+		float[] old_gaps = gaps;
+		double[] old_a = travels_a, old_b = travels_b;
+
+		keys = new long[old_keys.length * 2];
+		Arrays.fill(keys, PairSet.EMPTY);
+		gaps = new float[keys.length];
+		travels_a = new double[keys.length];
+		travels_b = new double[keys.length];
+		mask = keys.length - 1;
+
+		for (int i = 0; i < old_keys.length; i++){
+			if (old_keys[i] != PairSet.EMPTY){
+				int slot = slotFor(old_keys[i]);
+				keys[slot] = old_keys[i];
+				gaps[slot] = old_gaps[i];
+				travels_a[slot] = old_a[i];
+				travels_b[slot] = old_b[i];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+/**
+ * PairList.java
+ *
+ * A reusable list of (id, id) pairs, stored in primitive arrays. Used to pass candidate pairs from a
+ * Broadphase to its CollisionLayer without allocating anything per pair.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+
+public class PairList{
+
+	private int[] a;
+	private int[] b;
+	private int size;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public PairList(){
+		a = new int[64];
+		b = new int[64];
+		size = 0;
+	}
+
+	//----------------------
+	//--| Access Methods |--
+	//----------------------
+
+	/** Appends the pair (a, b) */
+	public void add(int a, int b){
+		if (size == this.a.length){
+			this.a = Arrays.copyOf(this.a, size * 2);
+			this.b = Arrays.copyOf(this.b, size * 2);
+		}
+		this.a[size] = a;
+		this.b[size] = b;
+		size++;
+	}
+
+	/** Replaces the pair at index i, which must be less than size() */
+	public void set(int i, int a, int b){
+		this.a[i] = a;
+		this.b[i] = b;
+	}
+
+	/** Drops every pair from index size on, keeping the first size pairs */
+	public void truncate(int size){
+		if (size < 0 || size > this.size){
+			throw new IllegalArgumentException("cannot truncate " + this.size + " pairs to " + size);
+		}
+		this.size = size;
+	}
+
+	/** Empties this, keeping its storage for reuse */
+	public void clear(){ size = 0; }
+
+	public int size(){ return size; }
+	public int getA(int i){ return a[i]; }
+	public int getB(int i){ return b[i]; }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * PairSet.java
+ *
+ * A set of unordered (id, id) pairs, packed into longs and stored in an open-addressing hash table.
+ * Unlike a HashSet<Long>, nothing is boxed and nothing is allocated once the table has grown to its
+ * working size, so a Broadphase can update it every frame without producing garbage.
+ *
+ * Deletion uses backward-shifting instead of tombstones, so the table never needs rebuilding
+ * after many removals.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+
+public class PairSet{
+
+	/** Returned by keyAt() for unused slots */
+	public static final long EMPTY = -1L;
+
+	private long[] table;
+	private int mask;
+	private int size;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public PairSet(){
+		this(64);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity the number of pairs to make room for before the table has to grow
+	 */
+	public PairSet(int capacity){
+		int slots = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+		table = new long[slots];
+		Arrays.fill(table, EMPTY);
+		mask = slots - 1;
+		size = 0;
+	}
+
+	//--------------------
+	//--| Pair Packing |--
+	//--------------------
+
+	/** Returns a key which is identical for (a, b) and (b, a); ids must be non-negative */
+	public static long key(int a, int b){
+		if (a > b){
+			int t = a; a = b; b = t;
+		}
+		return ((long)a << 32) | (b & 0xFFFFFFFFL);
+	}
+
+	/** Returns the lower id packed into key */
+	public static int lowerId(long key){ return (int)(key >>> 32); }
+
+	/** Returns the higher id packed into key */
+	public static int upperId(long key){ return (int)key; }
+
+	//----------------------
+	//--| Set Operations |--
+	//----------------------
+
+	/** Adds the pair (a, b); returns false if it was already present */
+	public boolean add(int a, int b){
+		long key = key(a, b);
+		int slot = find(key);
+		if (table[slot] == key){
+			return false;
+		}
+
+		table[slot] = key;
+		if (++size * 2 > table.length){
+			grow();
+		}
+		return true;
+	}
+
+	/** Returns true if the pair (a, b) is present */
+	public boolean contains(int a, int b){
+		long key = key(a, b);
+		return table[find(key)] == key;
+	}
+
+	/** Removes the pair (a, b); returns false if it was not present */
+	public boolean remove(int a, int b){
+		long key = key(a, b);
+		int slot = find(key);
+		if (table[slot] != key){
+			return false;
+		}
+
+		//shift later members of the probe run back into the hole
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (table[next] != EMPTY){
+			int home = hash(table[next]);
+
+			//move table[next] into the hole only if its home slot is not between hole and next
+			if (((next - home) & mask) >= ((next - hole) & mask)){
+				table[hole] = table[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		table[hole] = EMPTY;
+		size--;
+		return true;
+	}
+
+	/** Removes every pair, keeping the table for reuse */
+	public void clear(){
+		if (size > 0){
+			Arrays.fill(table, EMPTY);
+			size = 0;
+		}
+	}
+
+	public int size(){ return size; }
+
+	//-----------------
+	//--| Iteration |--
+	//-----------------
+	//for (int i = 0; i < set.capacity(); i++){ long key = set.keyAt(i); if (key != PairSet.EMPTY){ ... } }
+
+	/** Returns the number of slots in the table; see keyAt() */
+	public int capacity(){ return table.length; }
+
+	/** Returns the key stored in the input slot, or EMPTY */
+	public long keyAt(int slot){ return table[slot]; }
+
+	//---------------
+	//--| Helpers |--
+	//---------------
+
+	/** Returns the slot holding key, or the empty slot where it would be inserted */
+	private int find(long key){
+		int slot = hash(key);
+		while (table[slot] != EMPTY && table[slot] != key){
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> 32) & mask;
+	}
+
+	private void grow(){
+		long[] old = table;
+		table = new long[old.length * 2];
+		Arrays.fill(table, EMPTY);
+		mask = table.length - 1;
+		for (long key : old){
+			if (key != EMPTY){
+				table[find(key)] = key;
+			}
+		}
+	}
+
+}
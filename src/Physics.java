@@ -5,13 +5,13 @@
  *    - logic and overarching interface
  *    - collision detection (see CollisionImage.java)
  *    - graphical representation (see GraphicalImage.java)
+ *    - state storage (see PhysicsWorld.java); this is a handle onto one body's slot
  *
  * //FIXME: after GraphicalImage is implemented, run ":%s/\/\/GIMG/g" and fix all relevant fixmes.
  */
 import org.newdawn.slick.GameContainer;
 import org.newdawn.slick.geom.Point;
 import org.newdawn.slick.geom.Shape;
-import org.newdawn.slick.geom.Transform;
 import org.newdawn.slick.geom.Vector2f;
 import org.newdawn.slick.Graphics;
 import org.newdawn.slick.SlickException;
@@ -23,14 +23,10 @@ import org.newdawn.slick.fills.GradientFill;
 
 public abstract class Physics{
 
-	//position
-	private Vector2f centroid_pos;
-	private float centroid_rot;
-
-	//motion
-	private Vector2f velocity;
-	private float drot;
-	private float friction = 1f; //% of velocity that is retained after each frame; range is [0,1].
+	//where this body's state lives (see PhysicsWorld); slot is kept up to date by world
+	private PhysicsWorld world;
+	int slot;
+	private boolean owns_world; //world was made for this alone, so update() integrates it
 
 	//cimg and gimg
 	private CollisionImage cimg;
@@ -47,6 +43,7 @@ public abstract class Physics{
 	 * @param centroid_rot (optional) Specifies an initial rotation for the centroid.
 	 * @param cimg A collision image, which detects and handles collisions with other Physics instances.
 	 * @param gimg A graphical image, responsible for drawing this Physics instance on the screen.
+	 * @param world (optional) The PhysicsWorld this body's state is kept in, which its owner integrates once per frame; without one, this keeps its own, and integrates itself in update().
 	 */
 	public Physics(
 		Vector2f centroid,
@@ -61,18 +58,44 @@ public abstract class Physics{
 		CollisionImage cimg,
 		GraphicalImage gimg
 		){
+		this(centroid, centroid_rot, cimg, gimg, null);
+	}
+	public Physics(
+		Vector2f centroid,
+		float centroid_rot,
+		CollisionImage cimg,
+		GraphicalImage gimg,
+		PhysicsWorld world
+		){
 		this.cimg = cimg;
 		this.gimg = gimg;
-		centroid_pos = centroid;
-		this.centroid_rot = centroid_rot;
+		owns_world = (world == null);
+		this.world = owns_world ? new PhysicsWorld(1) : world;
+		this.world.add(this, cimg, gimg, centroid.x, centroid.y, centroid_rot);
 
-		velocity = new Vector2f(0f, 0f);
-		drot = 0f;
+		//cimg's and gimg's shapes are in local space; place them
+		cimg.setPose(centroid.x, centroid.y, centroid_rot);
+		gimg.setPose(centroid.x, centroid.y, centroid_rot);
 	}
 
-	/** Destroys this, removing it from any/all push-notification systems */
+	/**
+	 * Destroys this, removing it from any/all push-notification systems. Its state moves out of a shared
+	 * PhysicsWorld into one of its own, so it can still be read (and updated) afterwards.
+	 */
 	public void destroy(){
 		cimg.destroy();
+		if (!owns_world){
+			int shared_slot = slot; //own.add() moves slot to own's
+			PhysicsWorld own = new PhysicsWorld(1);
+			own.add(this, cimg, gimg, world.getX(shared_slot), world.getY(shared_slot), world.getRotation(shared_slot));
+			own.accelerate(slot, world.getVX(shared_slot), world.getVY(shared_slot));
+			own.rotate(slot, world.getPendingRotation(shared_slot));
+			own.setFriction(slot, world.getFriction(shared_slot));
+			own.setTickLength(world.getFramesPerTick() * PhysicsWorld.FRAME_MS);
+			world.remove(shared_slot);
+			world = own;
+			owns_world = true;
+		}
 	}
 
 	//---------------------
@@ -88,7 +111,7 @@ public abstract class Physics{
 	public void rotate(float drot){
 		assert (drot >= 0) && (drot <= float2pi);
 
-		this.drot = restrictAngle(this.drot + drot);
+		world.rotate(slot, drot);
 	}
 
 	/**
@@ -98,8 +121,7 @@ public abstract class Physics{
 	 * @param dvy The change in velocity (y)
 	 */
 	public void accelerate(float dvx, float dvy){
-		velocity.x += dvx;
-		velocity.y += dvy;
+		world.accelerate(slot, dvx, dvy);
 	}
 	
 
@@ -110,6 +132,7 @@ public abstract class Physics{
 	 * @param dvf The change in velocity (forwards - aligned with centroid's rotation)
 	 */
 	public void accelerateAligned(float dvs, float dvf){
+		float centroid_rot = world.getRotation(slot);
 		accelerate( 
 			(float)(dvf*Math.cos(centroid_rot) - dvs*Math.sin(centroid_rot)),
 			(float)(dvf*Math.sin(centroid_rot) + dvs*Math.cos(centroid_rot))
@@ -118,13 +141,7 @@ public abstract class Physics{
 
 	/** Returns theta as an angle in the range [0,2π] */
 	private float restrictAngle(float theta){
-		while (theta > float2pi) {
-			theta -= float2pi;
-		}
-		while (theta < 0) {
-			theta += float2pi;
-		}
-		return theta;
+		return PhysicsWorld.restrictAngle(theta);
 	}
 	private static final float float2pi = (float)Math.PI * 2f;
 	
@@ -132,23 +149,19 @@ public abstract class Physics{
 	//--| Updates |--
 	//---------------
 
-	/** Performs framewise updates; should be propegated from the base Slick2D game object */
+	/**
+	 * Performs framewise updates; should be propegated from the base Slick2D game object. Motion is integrated
+	 * by world (see PhysicsWorld.integrate()), so this only integrates a PhysicsWorld of this body's own.
+	 */
 	public void update(GameContainer gc, int time_passed_ms){
-		//update poisition (centroid)
-		centroid_pos = centroid_pos.add(velocity);
-		centroid_rot = restrictAngle(centroid_rot + drot);
-
-		//update gimg and cimg
-		Transform motion_t = ( new Transform() )
-			.concatenate(Transform.createRotateTransform( drot, centroid_pos.getX(), centroid_pos.getY() )
-			.concatenate(Transform.createTranslateTransform( velocity.getX(), velocity.getY() )
-			));
-		cimg.transform(motion_t);
-		gimg.transform(motion_t);
-
-		//update motion (friction, etc.)
-		drot = 0f;
-		velocity = velocity.scale(friction);
+		update(time_passed_ms);
+	}
+
+	/** As update(gc, time_passed_ms); nothing here needs a GameContainer, so this can be driven without one */
+	public void update(int time_passed_ms){
+		if (owns_world){
+			world.integrate();
+		}
 	}
 
 	/** Performs graphical updates; should be propegated from the base Slick2D game object */
@@ -161,37 +174,65 @@ public abstract class Physics{
 	//----------------------
 	
 	/** Returns a copy of the centroid's position vector */
-	public Vector2f getPosition() { return new Vector2f(centroid_pos); }
+	public Vector2f getPosition() { return new Vector2f(world.getX(slot), world.getY(slot)); }
+
+	/** Copies the centroid's position into out, and returns out; unlike getPosition(), allocates nothing */
+	public Vector2f getPosition(Vector2f out) { return out.set(world.getX(slot), world.getY(slot)); }
+
+	/** Returns the centroid's position (x) */
+	public float getX() { return world.getX(slot); }
+
+	/** Returns the centroid's position (y) */
+	public float getY() { return world.getY(slot); }
 
 	/** Returns the centroid's current rotation */
-	public float getRotation() { return centroid_rot; }
+	public float getRotation() { return world.getRotation(slot); }
 	
 	/** Returns the angle of the velocity of the object */
 	public float getVelAngle() {
-		if (velocity.y == 0f && velocity.x == 0f)
+		float vx = world.getVX(slot), vy = world.getVY(slot);
+		if (vy == 0f && vx == 0f)
 			return restrictAngle((float) Math.random() * float2pi);
-		float result = (float) Math.atan2(velocity.y, velocity.x);
+		float result = (float) Math.atan2(vy, vx);
 		return restrictAngle(result);
 	}
 	
 	/** Returns the speed of the object */
 	public float getSpeed() {
-		float result = (float) Math.sqrt(velocity.x * velocity.x + velocity.y * velocity.y);
+		float vx = world.getVX(slot), vy = world.getVY(slot);
+		float result = (float) Math.sqrt(vx * vx + vy * vy);
 		return result;
 	}
 
 	/** Returns a copy of the velocity vector for this */
 	public Vector2f getVelocity(){
-		return velocity.copy();
+		return new Vector2f(world.getVX(slot), world.getVY(slot));
 	}
 
+	/** Copies the velocity vector for this into out, and returns out; unlike getVelocity(), allocates nothing */
+	public Vector2f getVelocity(Vector2f out){
+		return out.set(world.getVX(slot), world.getVY(slot));
+	}
+
+	/** Returns the velocity (x) */
+	public float getVX() { return world.getVX(slot); }
+
+	/** Returns the velocity (y) */
+	public float getVY() { return world.getVY(slot); }
+
 	/** Returns cimg, as it was passed to the constructor */
 	public CollisionImage getCImg() { return cimg; }
 
 	/** Returns gimg, as it was passed to the constructor */
 	public GraphicalImage getGImg() { return gimg; }
 
-	public void setFriction(float f){ friction = f; }
-	public float getFriction(){return friction;}
+	/** Returns how many frames each tick of this body's PhysicsWorld covers; scale steady pushes (thrust, turning) by this */
+	public float getFramesPerTick(){ return world.getFramesPerTick(); }
+
+	public void setFriction(float f){ world.setFriction(slot, f); }
+	public float getFriction(){return world.getFriction(slot);}
+
+	/** Returns the PhysicsWorld this body's state is kept in */
+	public PhysicsWorld getWorld() { return world; }
 
 }
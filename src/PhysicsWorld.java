@@ -0,0 +1,478 @@
+/**
+ * PhysicsWorld.java
+ *
+ * The physical state of a group of bodies (position, rotation, velocity, pending rotation and friction), kept in
+ * parallel arrays of primitives rather than one object per body, so that integrate() moves every body in one
+ * tight loop over contiguous memory. A Physics is a handle onto one slot of a PhysicsWorld; it reads and writes
+ * its state here, so callers of accelerate(), rotate() and the like need not know where it lives.
+ *
+ * Bodies are packed into slots 0 to count-1: remove() moves the last body into the freed slot, and tells its
+ * Physics where it went. After integrating, each body's new pose is handed to its CollisionImage and
+ * GraphicalImage (see ShapeTemplate).
+ *
+ * A World integrates its shared PhysicsWorld once per frame, after every object's logic has run. A Physics made
+ * without one gets a PhysicsWorld of its own, which its update() integrates (see Physics.update()).
+ *
+ * integrate() advances one tick, setTickLength() long. Velocities are in px per frame, a frame being 1/60 s
+ * (FRAME_MS), so a body covers the same ground per second whatever the tick rate; friction is compounded per
+ * frame likewise. Steady pushes (thrusters, turning) should be scaled by getFramesPerTick(); one-off impulses
+ * should not. Each body's pose before the last tick is kept, so interpolate() can draw bodies between the last
+ * two ticks when the display runs faster than the simulation.
+ *
+ * With setParallel(true), integrate() spreads the bodies over a ForkJoinPool once there are more of them than
+ * the parallel threshold (see setParallelThreshold()). No threshold has been measured on a multi-core machine yet,
+ * so by default there is none: a parallel world stays on one thread until it is given the crossover main()
+ * prints on the target hardware. Bodies are independent, so each thread takes whole
+ * chunks of slots, sized so that no two threads write to the same cache line of the arrays but at a chunk's
+ * ends; every body gets exactly the arithmetic it gets on one thread, so the result is bitwise identical.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class PhysicsWorld{
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/** The length of a frame, the unit of time of velocities, frictions and pending rotations; 1/60 s */
+	public static final float FRAME_MS = 1000f / 60f;
+
+	//parallel integration; a chunk is a whole number of 64-byte cache lines of floats
+	private static final int PARALLEL_CHUNK_SIZE = 4096;
+	private static final int DEFAULT_PARALLEL_THRESHOLD = Integer.MAX_VALUE; //unmeasured, so never; see main()
+
+	private int count; //bodies, in slots 0 to count-1
+	private long changes; //bodies added or removed, ever
+
+	//one entry per slot
+	private Physics[] owners;
+	private CollisionImage[] cimgs;
+	private GraphicalImage[] gimgs;
+	private float[] pos_x;
+	private float[] pos_y;
+	private float[] rot;      //radians, in [0,2π]
+	private float[] vel_x;    //px/frame
+	private float[] vel_y;
+	private float[] drot;     //rotation to apply at the next integrate(); radians, in [0,2π]
+	private float[] friction; //% of velocity retained after each frame; range is [0,1]
+	private float[] prev_x;   //pose before the last integrate(), for interpolate()
+	private float[] prev_y;
+	private float[] prev_rot;
+
+	private float frames_per_tick; //how many frames one integrate() covers
+
+	//parallel integration, or null (see setParallel())
+	private ForkJoinPool pool;
+	private int parallel_threshold;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public PhysicsWorld(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity how many bodies to make room for; more are made room for as they are added
+	 * @throws IllegalArgumentException if capacity is less than 1
+	 */
+	public PhysicsWorld(int capacity){
+		if (capacity < 1){
+			throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+		}
+		count = 0;
+		changes = 0L;
+		owners = new Physics[capacity];
+		cimgs = new CollisionImage[capacity];
+		gimgs = new GraphicalImage[capacity];
+		pos_x = new float[capacity];
+		pos_y = new float[capacity];
+		rot = new float[capacity];
+		vel_x = new float[capacity];
+		vel_y = new float[capacity];
+		drot = new float[capacity];
+		friction = new float[capacity];
+		prev_x = new float[capacity];
+		prev_y = new float[capacity];
+		prev_rot = new float[capacity];
+		frames_per_tick = 1f;
+		pool = null;
+		parallel_threshold = DEFAULT_PARALLEL_THRESHOLD;
+	}
+
+	//--------------
+	//--| Bodies |--
+	//--------------
+
+	/**
+	 * Adds a body at rest, with no friction, and returns its slot. Only Physics calls this; the slot is kept up to
+	 * date in owner.slot as other bodies are removed.
+	 */
+	int add(Physics owner, CollisionImage cimg, GraphicalImage gimg, float x, float y, float rotation){
+		if (count == owners.length){
+			grow(count * 2);
+		}
+		int slot = count++;
+		changes++;
+		owners[slot] = owner;
+		cimgs[slot] = cimg;
+		gimgs[slot] = gimg;
+		pos_x[slot] = x;
+		pos_y[slot] = y;
+		rot[slot] = rotation;
+		vel_x[slot] = 0f;
+		vel_y[slot] = 0f;
+		drot[slot] = 0f;
+		friction[slot] = 1f;
+		prev_x[slot] = x;
+		prev_y[slot] = y;
+		prev_rot[slot] = rotation;
+		owner.slot = slot;
+		return slot;
+	}
+
+	/** Removes the body in the input slot, moving the last body into it */
+	void remove(int slot){
+		checkSlot(slot);
+		int last = --count;
+		changes++;
+		if (slot != last){
+			owners[slot] = owners[last];
+			cimgs[slot] = cimgs[last];
+			gimgs[slot] = gimgs[last];
+			pos_x[slot] = pos_x[last];
+			pos_y[slot] = pos_y[last];
+			rot[slot] = rot[last];
+			vel_x[slot] = vel_x[last];
+			vel_y[slot] = vel_y[last];
+			drot[slot] = drot[last];
+			friction[slot] = friction[last];
+			prev_x[slot] = prev_x[last];
+			prev_y[slot] = prev_y[last];
+			prev_rot[slot] = prev_rot[last];
+			owners[slot].slot = slot;
+		}
+		owners[last] = null; //let go of the removed body
+		cimgs[last] = null;
+		gimgs[last] = null;
+	}
+
+	/** Returns the number of bodies in this */
+	public int count(){ return count; }
+
+	/** Returns how many bodies have ever been added or removed; unchanged over a tick, nothing spawned or died */
+	public long getChangeCount(){ return changes; }
+
+	//---------------
+	//--| Updates |--
+	//---------------
+
+	/**
+	 * Advances every body by one tick: moves it by its velocity and turns it by its pending rotation, applies
+	 * friction, then hands its new pose to its CollisionImage and GraphicalImage. Runs on pool if parallel integration is enabled
+	 * and there are more bodies than the parallel threshold.
+	 */
+	public void integrate(){
+		if (pool != null && count > parallel_threshold){
+			int chunk_count = (count + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+			pool.invoke( new IntegrateTask(0, chunk_count) );
+		} else {
+			integrateRange(0, count);
+		}
+	}
+
+	//Integrates the bodies in chunks [first_chunk, last_chunk), splitting in half until one chunk is left
+	private class IntegrateTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		private int first_chunk;
+		private int last_chunk;
+
+		public IntegrateTask(int first_chunk, int last_chunk){
+			this.first_chunk = first_chunk;
+			this.last_chunk = last_chunk;
+		}
+
+		@Override
+		protected void compute(){
+			if (last_chunk - first_chunk == 1){
+				int start = first_chunk * PARALLEL_CHUNK_SIZE;
+				integrateRange(start, Math.min(start + PARALLEL_CHUNK_SIZE, count));
+			} else {
+				int mid = (first_chunk + last_chunk) >>> 1;
+				invokeAll( new IntegrateTask(first_chunk, mid), new IntegrateTask(mid, last_chunk) );
+			}
+		}
+
+	}
+
+	/** Integrates the bodies in slots [start, end), then poses them; see integrate() */
+	private void integrateRange(int start, int end){
+		float dt = frames_per_tick;
+		for (int k = start; k < end; k++){
+			prev_x[k] = pos_x[k];
+			prev_y[k] = pos_y[k];
+			prev_rot[k] = rot[k];
+			pos_x[k] += vel_x[k] * dt;
+			pos_y[k] += vel_y[k] * dt;
+			rot[k] = restrictAngle(rot[k] + drot[k]);
+			drot[k] = 0f;
+			float f = (dt == 1f) ? friction[k] : (float)Math.pow(friction[k], dt);
+			vel_x[k] *= f;
+			vel_y[k] *= f;
+		}
+		for (int k = start; k < end; k++){
+			cimgs[k].setPose(pos_x[k], pos_y[k], rot[k]);
+			gimgs[k].setPose(pos_x[k], pos_y[k], rot[k]);
+		}
+	}
+
+	/**
+	 * Poses every body's GraphicalImage between its pose before the last tick (alpha 0) and its current pose
+	 * (alpha 1); CollisionImages are left at the current pose. Rotation turns the short way round.
+	 */
+	public void interpolate(float alpha){
+		for (int k = 0; k < count; k++){
+			float turn = rot[k] - prev_rot[k];
+			if (turn > floatpi){
+				turn -= float2pi;
+			} else if (turn < -floatpi){
+				turn += float2pi;
+			}
+			gimgs[k].setPose(
+				prev_x[k] + (pos_x[k] - prev_x[k]) * alpha,
+				prev_y[k] + (pos_y[k] - prev_y[k]) * alpha,
+				prev_rot[k] + turn * alpha
+				);
+		}
+	}
+	private static final float floatpi = (float)Math.PI;
+
+	/** Returns theta as an angle in the range [0,2π] */
+	static float restrictAngle(float theta){
+		while (theta > float2pi) {
+			theta -= float2pi;
+		}
+		while (theta < 0) {
+			theta += float2pi;
+		}
+		return theta;
+	}
+	private static final float float2pi = (float)Math.PI * 2f;
+
+	//----------------------
+	//--| Access Methods |--
+	//----------------------
+
+	public float getX(int slot){ return pos_x[slot]; }
+	public float getY(int slot){ return pos_y[slot]; }
+	public float getRotation(int slot){ return rot[slot]; }
+	public float getVX(int slot){ return vel_x[slot]; }
+	public float getVY(int slot){ return vel_y[slot]; }
+	public float getFriction(int slot){ return friction[slot]; }
+
+	/** Returns the rotation the body in the input slot will make at the next integrate() */
+	public float getPendingRotation(int slot){ return drot[slot]; }
+
+	/** Changes the velocity of the body in the input slot by (dvx, dvy) */
+	public void accelerate(int slot, float dvx, float dvy){
+		vel_x[slot] += dvx;
+		vel_y[slot] += dvy;
+	}
+
+	/** Adds drot to the rotation the body in the input slot will make at the next integrate() */
+	public void rotate(int slot, float drot){
+		this.drot[slot] = restrictAngle(this.drot[slot] + drot);
+	}
+
+	public void setFriction(int slot, float f){ friction[slot] = f; }
+
+	/**
+	 * Sets how much time each integrate() covers.
+	 *
+	 * @param tick_ms the length of a tick, in milliseconds; FRAME_MS (the default) moves bodies by exactly their velocity
+	 * @throws IllegalArgumentException if tick_ms is not positive
+	 */
+	public void setTickLength(float tick_ms){
+		if (!(tick_ms > 0f)){
+			throw new IllegalArgumentException("tick_ms must be positive: " + tick_ms);
+		}
+		frames_per_tick = tick_ms / FRAME_MS;
+	}
+
+	/** Returns how many frames (see FRAME_MS) each integrate() covers; scale steady pushes by this */
+	public float getFramesPerTick(){ return frames_per_tick; }
+
+	/**
+	 * Enables or disables parallel integration. When enabled, integrate() runs on a ForkJoinPool whenever there
+	 * are more bodies than the parallel threshold, with the same result as on one thread.
+	 *
+	 * @param parallel true to integrate large worlds on several threads
+	 */
+	public void setParallel(boolean parallel){
+		if (parallel && pool == null){
+			pool = new ForkJoinPool();
+		} else if (!parallel && pool != null){
+			pool.shutdown();
+			pool = null;
+		}
+	}
+	public boolean isParallel(){ return pool != null; }
+
+	/**
+	 * Sets how many bodies there must be before a parallel integrate() leaves the calling thread; below it, the
+	 * cost of waking the pool outweighs the work. Until this is called, a parallel integrate() never leaves the
+	 * calling thread; main() prints where the crossover lies on the machine it runs on.
+	 *
+	 * @throws IllegalArgumentException if threshold is negative
+	 */
+	public void setParallelThreshold(int threshold){
+		if (threshold < 0){
+			throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+		}
+		parallel_threshold = threshold;
+	}
+	public int getParallelThreshold(){ return parallel_threshold; }
+
+	//-----------------------
+	//--| Private Helpers |--
+	//-----------------------
+
+	private void checkSlot(int slot){
+		if (slot < 0 || slot >= count){
+			throw new IllegalArgumentException("no body in slot " + slot);
+		}
+	}
+
+	private void grow(int capacity){
+		owners = Arrays.copyOf(owners, capacity);
+		cimgs = Arrays.copyOf(cimgs, capacity);
+		gimgs = Arrays.copyOf(gimgs, capacity);
+		pos_x = Arrays.copyOf(pos_x, capacity);
+		pos_y = Arrays.copyOf(pos_y, capacity);
+		rot = Arrays.copyOf(rot, capacity);
+		vel_x = Arrays.copyOf(vel_x, capacity);
+		vel_y = Arrays.copyOf(vel_y, capacity);
+		drot = Arrays.copyOf(drot, capacity);
+		friction = Arrays.copyOf(friction, capacity);
+		prev_x = Arrays.copyOf(prev_x, capacity);
+		prev_y = Arrays.copyOf(prev_y, capacity);
+		prev_rot = Arrays.copyOf(prev_rot, capacity);
+	}
+
+	//--------------------------
+	//--| Test/Debug Methods |--
+	//--------------------------
+
+	/**
+	 * Sandbox driver: integrates a drifting, spinning field of bodies (100000 by default) in one shared PhysicsWorld,
+	 * and again as one Physics per body integrating itself through update(), as every body used to; prints the time
+	 * per frame of each, and checks that both end up in the same place. Then integrates worlds of 1024 bodies and up
+	 * serially and in parallel, checks the results are bitwise identical, and prints the size from which parallel
+	 * integration is faster on this machine, to be passed to setParallelThreshold().
+	 */
+	public static void main(String[] args){
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int frames = 200;
+
+		org.newdawn.slick.geom.Circle local = new org.newdawn.slick.geom.Circle(0f, 0f, 10f);
+		PhysicsWorld world = new PhysicsWorld(n);
+		Physics[][] bodies = new Physics[2][n];
+		for (int run = 0; run < 2; run++){
+			java.util.Random rand = new java.util.Random(1);
+			for (int i = 0; i < n; i++){
+				float x = rand.nextFloat() * 5000f, y = rand.nextFloat() * 5000f;
+				Physics p = new Physics(new org.newdawn.slick.geom.Vector2f(x, y), 0f,
+					new CollisionImage(local, new Collider(){}), new GraphicalImage(local), (run == 0) ? world : null){};
+				p.accelerate(rand.nextFloat() * 2f - 1f, rand.nextFloat() * 2f - 1f);
+				p.setFriction(.999f);
+				bodies[run][i] = p;
+			}
+		}
+
+		long[] elapsed = new long[2];
+		for (int pass = 0; pass < 2; pass++){ //the first pass warms up
+			for (int run = 0; run < 2; run++){
+				long start = System.nanoTime();
+				for (int f = 0; f < frames; f++){
+					for (int i = 0; i < n; i++){
+						bodies[run][i].rotate(.01f);
+					}
+					if (run == 0){
+						world.integrate();
+					} else {
+						for (int i = 0; i < n; i++){
+							bodies[run][i].update(16);
+						}
+					}
+				}
+				elapsed[run] = (System.nanoTime() - start) / frames;
+			}
+		}
+
+		boolean same = true;
+		for (int i = 0; i < n; i++){
+			same &= bodies[0][i].getPosition().equals(bodies[1][i].getPosition())
+				&& bodies[0][i].getRotation() == bodies[1][i].getRotation();
+		}
+		System.out.println(n + " bodies: " + elapsed[0]/1000 + " us/frame shared, " + elapsed[1]/1000
+			+ " us/frame one per body; same result: " + same);
+
+		//where parallel integration starts paying: the same world on one thread, and on a pool with no threshold
+		int crossover = -1;
+		for (int size = 1024; size <= n; size *= 2){
+			PhysicsWorld[] worlds = { new PhysicsWorld(size), new PhysicsWorld(size) };
+			worlds[1].setParallel(true);
+			worlds[1].setParallelThreshold(0);
+			for (int run = 0; run < 2; run++){
+				java.util.Random rand = new java.util.Random(size);
+				for (int i = 0; i < size; i++){
+					Physics p = new Physics(new org.newdawn.slick.geom.Vector2f(rand.nextFloat() * 5000f, rand.nextFloat() * 5000f), 0f,
+						new CollisionImage(local, new Collider(){}), new GraphicalImage(local), worlds[run]){};
+					p.accelerate(rand.nextFloat() * 2f - 1f, rand.nextFloat() * 2f - 1f);
+					p.setFriction(.999f);
+				}
+			}
+			for (int pass = 0; pass < 2; pass++){ //the first pass warms up
+				for (int run = 0; run < 2; run++){
+					long start = System.nanoTime();
+					for (int f = 0; f < frames; f++){
+						for (int i = 0; i < size; i++){
+							worlds[run].rotate(i, .01f);
+						}
+						worlds[run].integrate();
+					}
+					elapsed[run] = (System.nanoTime() - start) / frames;
+				}
+			}
+			worlds[1].setParallel(false);
+
+			boolean identical = true;
+			for (int i = 0; i < size; i++){
+				identical &= Float.floatToRawIntBits(worlds[0].getX(i)) == Float.floatToRawIntBits(worlds[1].getX(i))
+					&& Float.floatToRawIntBits(worlds[0].getY(i)) == Float.floatToRawIntBits(worlds[1].getY(i))
+					&& Float.floatToRawIntBits(worlds[0].getVX(i)) == Float.floatToRawIntBits(worlds[1].getVX(i))
+					&& Float.floatToRawIntBits(worlds[0].getRotation(i)) == Float.floatToRawIntBits(worlds[1].getRotation(i));
+			}
+			System.out.println(size + " bodies: " + elapsed[0]/1000 + " us/frame serial, " + elapsed[1]/1000
+				+ " us/frame parallel; bitwise identical: " + identical);
+			if (elapsed[1] >= elapsed[0]){
+				crossover = -1;
+			} else if (crossover < 0){
+				crossover = size;
+			}
+		}
+		System.out.println( (crossover < 0)
+			? "parallel never paid on " + Runtime.getRuntime().availableProcessors() + " processor(s)"
+			: "parallel paid from " + crossover + " bodies on " + Runtime.getRuntime().availableProcessors()
+				+ " processor(s); pass that to setParallelThreshold()" );
+	}
+
+}
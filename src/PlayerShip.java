@@ -25,30 +25,36 @@ public class PlayerShip extends StellarObject{
 	//--| 'structors |--
 	//------------------
 
-	private PlayerShip(Physics phys, CollisionLayer cl) {
+	private PlayerShip(Physics phys, CollisionLayer cl, PhysicsWorld world) {
 		super(phys);
 		this.cl = cl;
 		HP = 1;
-		bm = new BulletManager(cl);
+		bm = new BulletManager(cl, world, CollisionLayer.CATEGORY_PLAYER);
 	}
 
 	public static PlayerShip makeShip(float x, float y, CollisionLayer cl) {
+		return makeShip(x, y, cl, null);
+	}
+
+	/** As makeShip(x, y, cl), keeping the ship's (and its bullets') physical state in world (see PhysicsWorld) */
+	public static PlayerShip makeShip(float x, float y, CollisionLayer cl, PhysicsWorld world) {
 		//make centroid
 		Vector2f centroid = new Vector2f(x, y);
 
 		//make cimg
 		_PlayerCollider pc = new _PlayerCollider();
-		Polygon pol = new Polygon(new float[]{
-			x   , y+7f,
-			x+5f, y-5f,
-			x-5f, y-5f
+		Polygon pol = new Polygon(new float[]{ //local space: about the centroid, facing +x (Physics turns it to face +y)
+			 7f,  0f,
+			-5f, -5f,
+			-5f,  5f
 			});
 		CollisionImage cimg = new CollisionImage(pol, pc);
+		cimg.setFilter(CollisionLayer.CATEGORY_PLAYER, CollisionLayer.MASK_ALL);
 
 		GraphicalImage gimg = new GraphicalImage(pol);
 
 		//make the PlayerShip
-		PlayerShip ps = new PlayerShip(new _PlayerShipPhysics(centroid, cimg, gimg), cl);
+		PlayerShip ps = new PlayerShip(new _PlayerShipPhysics(centroid, cimg, gimg, world), cl, world);
 
 		//close circular references
 		pc.ps = ps;
@@ -63,24 +69,30 @@ public class PlayerShip extends StellarObject{
 	/** Performs framewise updates; should be propegated from the base Slick2D game object */
 	@Override
 	public void update(GameContainer gc, int time_passed_ms) {
+		update(gc.getInput(), time_passed_ms);
+	}
+
+	/**
+	 * As update(gc, time_passed_ms), reading the keys from in; nothing else here needs a GameContainer, so
+	 * this can be driven without one (see World.main())
+	 */
+	public void update(Input in, int time_passed_ms) {
 
 		if (HP <= 0){
 			destroy();
 		}
 		
 		//keyboard input
-		Input in = gc.getInput();
-
 		if (in.isKeyDown(Input.KEY_LEFT)) {
-			getPhys().rotate(-ROTATION);
+			getPhys().rotate(-ROTATION * getPhys().getFramesPerTick());
 		}
 
 		if (in.isKeyDown(Input.KEY_RIGHT)) {
-			getPhys().rotate(ROTATION);
+			getPhys().rotate(ROTATION * getPhys().getFramesPerTick());
 		}
 
 		if (in.isKeyDown(Input.KEY_UP)) {
-			getPhys().accelerateAligned(0f, THRUSTER_ACCELERATION);
+			getPhys().accelerateAligned(0f, THRUSTER_ACCELERATION * getPhys().getFramesPerTick());
 		}
 
 		if (in.isKeyDown(Input.KEY_DOWN)){
@@ -93,9 +105,9 @@ public class PlayerShip extends StellarObject{
 			fire();
 		}
 		
-		bm.update(gc, time_passed_ms);
+		bm.update(time_passed_ms);
 
-		super.update(gc, time_passed_ms);
+		super.update(time_passed_ms);
 	}
 	
 	@Override
@@ -105,8 +117,8 @@ public class PlayerShip extends StellarObject{
 	}
 	
 	private void fire() {
-		float x     = getPhys().getPosition().x;
-		float y     = getPhys().getPosition().y;
+		float x     = getPhys().getX();
+		float y     = getPhys().getY();
 		float angle = getPhys().getRotation();
 		x += (float) 10 * Math.cos(angle);
 		y += (float) 10 * Math.sin(angle);
@@ -123,8 +135,8 @@ public class PlayerShip extends StellarObject{
 		private static final float FRICTION_DEFAULT = .995f;
 		private static final float FRICTION_BRAKING = .950f;
 		
-		public _PlayerShipPhysics(Vector2f centroid, CollisionImage cimg, GraphicalImage gimg ) {
-			super(centroid, (float) Math.PI / 2, cimg, gimg);
+		public _PlayerShipPhysics(Vector2f centroid, CollisionImage cimg, GraphicalImage gimg, PhysicsWorld world) {
+			super(centroid, (float) Math.PI / 2, cimg, gimg, world);
 
 			setFriction(FRICTION_DEFAULT);
 		}
@@ -0,0 +1,289 @@
+/**
+ * ShapeTemplate.java
+ *
+ * The geometry of a body in its own (local) space: a Circle or Polygon about the body's centroid, at rotation
+ * 0. Templates are immutable and interned, so every body of the same shape (every 20px asteroid, every bullet)
+ * shares one, along with its convex parts (see ConvexDecomposition) and the triangles Slick draws it with. The
+ * interning is weak: once no body holds a template any more, it can be collected, so one-off shapes do not
+ * pile up.
+ *
+ * A body is placed in the world by a pose (position and rotation; see Physics), never by transforming its
+ * Shape. Drawing applies the pose as a graphics transform, so the template itself is what gets drawn. Collision
+ * detection needs world-space Shapes, so createPosed() makes one per body: a Circle or Polygon subclass which
+ * holds only a pose, and works out its world-space points and bounds from the template when Slick first asks
+ * for them after setPose(), into arrays it reuses. Moving a body therefore allocates nothing, and its points
+ * never drift, as they are never transformed twice.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+import org.newdawn.slick.Graphics;
+import org.newdawn.slick.ShapeFill;
+import org.newdawn.slick.geom.Circle;
+import org.newdawn.slick.geom.Polygon;
+import org.newdawn.slick.geom.Shape;
+
+public class ShapeTemplate{
+
+	//every template still in use, by geometry; each template holds its own Key, so an entry lasts exactly as
+	//long as its template is reachable from somewhere else
+	private static final WeakHashMap<Key, WeakReference<ShapeTemplate>> templates =
+		new WeakHashMap<Key, WeakReference<ShapeTemplate>>();
+
+	//A template's geometry, for interning: a circle's center and radius, or a polygon's points
+	private static class Key{
+
+		private boolean circle;
+		private float[] data;
+
+		public Key(boolean circle, float[] data){
+			this.circle = circle;
+			this.data = data;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			return o instanceof Key && ((Key)o).circle == circle && Arrays.equals(((Key)o).data, data);
+		}
+
+		@Override
+		public int hashCode(){
+			return Arrays.hashCode(data) * 31 + (circle ? 1 : 0);
+		}
+
+	}
+
+	/** A world-space Shape made by createPosed(), placed by a pose */
+	public interface Posed{
+
+		/**
+		 * Places this at the input position and rotation; its points and bounds are only worked out again when
+		 * next asked for.
+		 *
+		 * @param x        where the template's origin goes
+		 * @param y        where the template's origin goes
+		 * @param rotation radians, about the template's origin
+		 */
+		public void setPose(float x, float y, float rotation);
+
+	}
+
+	//A posed Circle: only its center moves, and its bounds come straight from its center and radius
+	private static class PosedCircle extends Circle implements Posed{
+
+		private static final long serialVersionUID = 1L;
+
+		private float local_x; //the template's center
+		private float local_y;
+
+		public PosedCircle(float local_x, float local_y, float radius){
+			super(local_x, local_y, radius);
+			this.local_x = local_x;
+			this.local_y = local_y;
+		}
+
+		@Override
+		public void setPose(float x, float y, float rotation){
+			if (local_x != 0f || local_y != 0f){
+				float cos = (float)Math.cos(rotation), sin = (float)Math.sin(rotation);
+				float cx = local_x*cos - local_y*sin, cy = local_x*sin + local_y*cos;
+				x += cx;
+				y += cy;
+			}
+			this.x = x - radius;
+			this.y = y - radius;
+			pointsDirty = true; //Slick's 50-point outline is only rebuilt if something asks for it
+		}
+
+		@Override
+		public float getMinX(){ return x; }
+		@Override
+		public float getMinY(){ return y; }
+		@Override
+		public float getMaxX(){ return x + 2f*radius; }
+		@Override
+		public float getMaxY(){ return y + 2f*radius; }
+
+	}
+
+	//A posed Polygon: its points are the template's, rotated and moved, rebuilt in place when next needed
+	private static class PosedPolygon extends Polygon implements Posed{
+
+		private static final long serialVersionUID = 1L;
+
+		private float[] local; //the template's points; shared, never written
+		private float pose_x;
+		private float pose_y;
+		private float cos;
+		private float sin;
+
+		public PosedPolygon(float[] local){
+			super();
+			this.local = local;
+			points = new float[local.length];
+			center = new float[2];
+			setPose(0f, 0f, 0f);
+		}
+
+		@Override
+		public void setPose(float x, float y, float rotation){
+			pose_x = x;
+			pose_y = y;
+			cos = (float)Math.cos(rotation);
+			sin = (float)Math.sin(rotation);
+			pointsDirty = true;
+		}
+
+		/** Called by Slick's checkPoints() whenever points are needed and the pose has changed */
+		@Override
+		protected void createPoints(){
+			for (int k = 0; k < local.length; k += 2){
+				float lx = local[k], ly = local[k + 1];
+				points[k]     = pose_x + lx*cos - ly*sin;
+				points[k + 1] = pose_y + lx*sin + ly*cos;
+			}
+		}
+
+		/** As Shape.findCenter() (the mean of the points), without allocating a new center */
+		@Override
+		protected void findCenter(){
+			float cx = 0f, cy = 0f;
+			for (int k = 0; k < points.length; k += 2){
+				cx += points[k];
+				cy += points[k + 1];
+			}
+			center[0] = cx / (points.length / 2);
+			center[1] = cy / (points.length / 2);
+		}
+
+	}
+
+	private Key key;         //this template's entry in templates; held only to keep that entry alive
+	private Shape shape;     //the local-space Shape; drawn under a transform, and never moved
+	private boolean circle;
+	private float[] points;  //a polygon's local points; a circle's center and radius
+	private float[][] parts; //convex parts of a concave polygon, or null
+	private float center_x;  //Slick's center of shape, in local space
+	private float center_y;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	private ShapeTemplate(Key key, boolean circle, float[] points){
+		this.key = key;
+		this.circle = circle;
+		this.points = points;
+		parts = null;
+		if (circle){
+			shape = new Circle(points[0], points[1], points[2]);
+		} else {
+			shape = new Polygon(points.clone());
+			if (Narrowphase.classify(shape) == Narrowphase.KIND_GENERIC){
+				float[][] pieces = ConvexDecomposition.decompose(points);
+				if (pieces != null && pieces.length > 1){
+					parts = pieces;
+				}
+			}
+		}
+		center_x = shape.getCenterX();
+		center_y = shape.getCenterY();
+	}
+
+	/**
+	 * Returns the template for the input local-space Shape: the one already made for the same geometry, if
+	 * there is one. local itself is not kept, so the caller may go on to change it.
+	 *
+	 * @param local a Circle, or any other Shape (taken as a Polygon of its points), about the body's centroid
+	 */
+	public static synchronized ShapeTemplate of(Shape local){
+		boolean circle = local instanceof Circle;
+		float[] data = circle
+			? new float[]{ local.getCenterX(), local.getCenterY(), ((Circle)local).getRadius() }
+			: local.getPoints().clone();
+
+		Key key = new Key(circle, data);
+		WeakReference<ShapeTemplate> ref = templates.get(key);
+		ShapeTemplate template = (ref != null) ? ref.get() : null;
+		if (template == null){
+			template = new ShapeTemplate(key, circle, data);
+			templates.put(key, new WeakReference<ShapeTemplate>(template));
+		}
+		return template;
+	}
+
+	/** Returns the number of distinct templates which have not yet been collected */
+	public static synchronized int count(){
+		return templates.size();
+	}
+
+	//--------------
+	//--| Posing |--
+	//--------------
+
+	/** Returns a new world-space Shape for one body of this template (a Circle, or a Polygon), at the origin */
+	public Shape createPosed(){
+		if (circle){
+			return new PosedCircle(points[0], points[1], points[2]);
+		}
+		return new PosedPolygon(points);
+	}
+
+	/** Returns a new world-space Shape for each convex part of this template, at the origin; null if it has none */
+	public Shape[] createPosedParts(){
+		if (parts == null){
+			return null;
+		}
+		Shape[] posed = new Shape[parts.length];
+		for (int k = 0; k < parts.length; k++){
+			posed[k] = new PosedPolygon(parts[k]);
+		}
+		return posed;
+	}
+
+	/** Returns the world-space x of this template's center, for a body at the input pose */
+	public float getCenterX(float x, float rotation){
+		return x + center_x*(float)Math.cos(rotation) - center_y*(float)Math.sin(rotation);
+	}
+
+	/** Returns the world-space y of this template's center, for a body at the input pose */
+	public float getCenterY(float y, float rotation){
+		return y + center_x*(float)Math.sin(rotation) + center_y*(float)Math.cos(rotation);
+	}
+
+	//----------------
+	//--| Graphics |--
+	//----------------
+
+	/** Fills this template, placed at the input pose */
+	public void fill(Graphics g, ShapeFill fill, float x, float y, float rotation){
+		g.pushTransform();
+		g.translate(x, y);
+		g.rotate(0f, 0f, (float)Math.toDegrees(rotation));
+		g.fill(shape, fill);
+		g.popTransform();
+	}
+
+	/** Outlines this template, placed at the input pose */
+	public void draw(Graphics g, ShapeFill fill, float x, float y, float rotation){
+		g.pushTransform();
+		g.translate(x, y);
+		g.rotate(0f, 0f, (float)Math.toDegrees(rotation));
+		g.draw(shape, fill);
+		g.popTransform();
+	}
+
+	//----------------------
+	//--| Access Methods |--
+	//----------------------
+
+	/** Returns true if this is a Circle */
+	public boolean isCircle(){ return circle; }
+
+	/** Returns true if this is a concave polygon, made of several convex parts */
+	public boolean isCompound(){ return parts != null; }
+
+}
@@ -76,6 +76,7 @@ public class SlickSandbox extends BasicGame
 					bb.b = false;
 				}
 			};
+		cimg.setBodyType(CollisionLayer.BODY_STATIC); //sandbox shapes never move
 		cimg.addTo(cl);
 		cimgs.add(cimg);
 
@@ -101,7 +102,7 @@ public class SlickSandbox extends BasicGame
 
 	@Override
 	public void init(GameContainer gc) throws SlickException {
-		p = PlayerShip.makeShip(100f, 100f);
+		p = PlayerShip.makeShip(100f, 100f, cl);
 		p.getPhys().getCImg().addTo(cl);
 		ai = AITest.makeAI(200f, 200f, p);
 		ai.getPhys().getCImg().addTo(cl);
@@ -124,6 +125,7 @@ public class SlickSandbox extends BasicGame
 			480,300
 			}));
 		killbox.setColor(Color.magenta);
+		killbox.setBodyType(CollisionLayer.BODY_STATIC);
 		killbox.addTo(cl);
 	}
 
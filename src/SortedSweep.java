@@ -0,0 +1,220 @@
+/**
+ * SortedSweep.java
+ *
+ * A sort-and-sweep Broadphase, rebuilt from scratch every frame: the bounding boxes are copied into flat
+ * arrays sorted by min_x, and then each box only needs testing against the run of boxes after it whose min_x
+ * is no greater than its max_x. That run is contiguous, so it is handed to an AABBKernel, which can test
+ * several boxes per instruction (see VectorAABBKernel).
+ *
+ * Unlike SweepAndPrune, nothing is carried over between frames, so the cost does not depend on how far
+ * things moved; this suits very large or fast-changing scenes, where the incremental sort degrades.
+ *
+ * query() binary-searches the same sorted arrays, and also checks every id added since the last findPairs().
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+
+public class SortedSweep implements Broadphase{
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private AABBKernel kernel;
+
+	//bounding boxes, as last passed in by the CollisionLayer
+	private AABBSnapshot bounds;
+
+	//copies of the boxes as of the last findPairs(), sorted by min_x; box i belongs to sorted_ids[i]
+	private float[] sorted_min_x;
+	private float[] sorted_min_y;
+	private float[] sorted_max_x;
+	private float[] sorted_max_y;
+	private int[] sorted_ids;
+	private int sorted_count;
+	private float max_width; //the widest sorted box, for query()
+
+	//sort keys: (min_x, made sortable as an int) << 32 | id
+	private long[] keys;
+
+	//indices (into the sorted arrays) found by the kernel
+	private int[] hits;
+
+	//ids added since the last findPairs(), not yet sorted
+	private int[] added_ids;
+	private int added_count;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	/** Uses the fastest AABBKernel available (see AABBKernel.create()) */
+	public SortedSweep(){
+		this(AABBKernel.create());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param kernel tests each box against its run of neighbours
+	 */
+	public SortedSweep(AABBKernel kernel){
+		this.kernel = kernel;
+		bounds = null;
+
+		sorted_min_x = new float[INITIAL_CAPACITY];
+		sorted_min_y = new float[INITIAL_CAPACITY];
+		sorted_max_x = new float[INITIAL_CAPACITY];
+		sorted_max_y = new float[INITIAL_CAPACITY];
+		sorted_ids = new int[INITIAL_CAPACITY];
+		sorted_count = 0;
+		max_width = 0f;
+		keys = new long[INITIAL_CAPACITY];
+		hits = new int[INITIAL_CAPACITY];
+
+		added_ids = new int[INITIAL_CAPACITY];
+		added_count = 0;
+	}
+
+	//------------------
+	//--| Broadphase |--
+	//------------------
+
+	@Override
+	public void add(int id, AABBSnapshot bounds){
+		//everything is re-sorted from the snapshot every frame; only remembered until then, for query()
+		if (added_count == added_ids.length){
+			added_ids = Arrays.copyOf(added_ids, added_ids.length * 2);
+		}
+		added_ids[added_count++] = id;
+	}
+
+	@Override
+	public void remove(int id){
+		//everything is re-sorted from the snapshot every frame; nothing to track
+	}
+
+	@Override
+	public void findPairs(AABBSnapshot bounds, PairList out){
+		this.bounds = bounds;
+		added_count = 0;
+
+		sortBoxes();
+
+		//box i's partners are the boxes after it which start before it ends
+		for (int i = 0; i < sorted_count - 1; i++){
+			int end = upperBound(sorted_max_x[i]);
+			if (end <= i + 1){
+				continue;
+			}
+
+			int found = kernel.overlapping(
+				sorted_min_x, sorted_min_y, sorted_max_x, sorted_max_y, i + 1, end,
+				sorted_min_x[i], sorted_min_y[i], sorted_max_x[i], sorted_max_y[i], hits
+				);
+			int a = sorted_ids[i];
+			for (int k = 0; k < found; k++){
+				int b = sorted_ids[hits[k]];
+				if (bounds.canCollide(a, b)){
+					out.add(a, b);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void query(AABBSnapshot bounds, float min_x, float min_y, float max_x, float max_y, QueryCallback callback){
+		//a box overlapping [min_x, max_x] has its min_x in [min_x - max_width, max_x]
+		int found = kernel.overlapping(
+			sorted_min_x, sorted_min_y, sorted_max_x, sorted_max_y, lowerBound(min_x - max_width), upperBound(max_x),
+			min_x, min_y, max_x, max_y, hits
+			);
+		for (int k = 0; k < found; k++){
+			if (!callback.report(sorted_ids[hits[k]])){
+				return;
+			}
+		}
+
+		for (int i = 0; i < added_count; i++){
+			int id = added_ids[i];
+			if (   bounds.min_x[id] <= max_x && min_x <= bounds.max_x[id]
+				&& bounds.min_y[id] <= max_y && min_y <= bounds.max_y[id]
+				&& !callback.report(id)
+				){
+				return;
+			}
+		}
+	}
+
+	//---------------
+	//--| Helpers |--
+	//---------------
+
+	/** Copies every box in bounds into the sorted arrays, in order of min_x */
+	private void sortBoxes(){
+		int n = bounds.getCount();
+		if (keys.length < n){
+			int capacity = Math.max(keys.length * 2, n);
+			sorted_min_x = new float[capacity];
+			sorted_min_y = new float[capacity];
+			sorted_max_x = new float[capacity];
+			sorted_max_y = new float[capacity];
+			sorted_ids = new int[capacity];
+			keys = new long[capacity];
+			hits = new int[capacity];
+		}
+
+		for (int i = 0; i < n; i++){
+			int id = bounds.getId(i);
+			keys[i] = ((long)sortable(bounds.min_x[id]) << 32) | id;
+		}
+		Arrays.sort(keys, 0, n);
+
+		max_width = 0f;
+		for (int i = 0; i < n; i++){
+			int id = (int)keys[i];
+			sorted_ids[i] = id;
+			sorted_min_x[i] = bounds.min_x[id];
+			sorted_min_y[i] = bounds.min_y[id];
+			sorted_max_x[i] = bounds.max_x[id];
+			sorted_max_y[i] = bounds.max_y[id];
+			max_width = Math.max(max_width, sorted_max_x[i] - sorted_min_x[i]);
+		}
+		sorted_count = n;
+	}
+
+	/** Returns an int which orders the same way as f does (for any f but NaN) */
+	private static int sortable(float f){
+		int bits = Float.floatToIntBits(f);
+		return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+	}
+
+	/** Returns the index of the first sorted box whose min_x is at least x */
+	private int lowerBound(float x){
+		int lo = 0, hi = sorted_count;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (sorted_min_x[mid] < x){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/** Returns the index of the first sorted box whose min_x is greater than x */
+	private int upperBound(float x){
+		int lo = 0, hi = sorted_count;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (sorted_min_x[mid] <= x){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+}
@@ -0,0 +1,271 @@
+/**
+ * SpatialHashGrid.java
+ *
+ * A uniform-grid Broadphase. Every frame, each Shape is dropped into every grid cell its bounding box
+ * touches, and only Shapes sharing a cell are tested against each other. Works best when most Shapes are
+ * about the same size as (or smaller than) a cell, e.g. a roughly uniform asteroid field; a Shape much larger
+ * than a cell lands in many cells.
+ *
+ * query() looks up the cells of the query box in the last frame's sorted entries by binary search, and also
+ * checks every id added since then (which the grid has not binned yet).
+ *
+ * The grid is hashed rather than allocated, so the world can be unbounded: cell coordinates wrap every
+ * 65536 cells, which only ever produces extra candidates (rejected by the bounding-box test), never missed ones.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+
+public class SpatialHashGrid implements Broadphase{
+
+	public static final float DEFAULT_CELL_SIZE = 64f;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private float cell_size;
+
+	//bounding boxes, as last passed in by the CollisionLayer
+	private AABBSnapshot bounds;
+
+	//one entry per (cell, id); the cell key is in the upper 32 bits, the id in the lower 32
+	private long[] entries;
+	private long[] entries_scratch; //radix sort buffer
+	private int[] radix_counts;
+	private int entry_count;
+
+	//ids added since the last findPairs(), not yet in entries
+	private int[] added_ids;
+	private int added_count;
+
+	//query() reports an id at most once per call: only if query_marks[id] != query_stamp
+	private int[] query_marks;
+	private int query_stamp;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public SpatialHashGrid(){
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param cell_size the width/height of a grid cell; ideally a little larger than a typical Shape
+	 */
+	public SpatialHashGrid(float cell_size){
+		if (!(cell_size > 0f)){
+			throw new IllegalArgumentException("cell_size must be positive: " + cell_size);
+		}
+		this.cell_size = cell_size;
+
+		bounds = null;
+		entries = new long[INITIAL_CAPACITY * 4];
+		entries_scratch = new long[INITIAL_CAPACITY * 4];
+		radix_counts = new int[256];
+		entry_count = 0;
+
+		added_ids = new int[INITIAL_CAPACITY];
+		added_count = 0;
+		query_marks = new int[INITIAL_CAPACITY];
+		query_stamp = 0;
+	}
+
+	//------------------
+	//--| Broadphase |--
+	//------------------
+
+	@Override
+	public void add(int id, AABBSnapshot bounds){
+		//the grid is rebuilt from the snapshot every frame; only remembered until then, for query()
+		if (added_count == added_ids.length){
+			added_ids = Arrays.copyOf(added_ids, added_ids.length * 2);
+		}
+		added_ids[added_count++] = id;
+	}
+
+	@Override
+	public void remove(int id){
+		//the grid is rebuilt from the snapshot every frame; nothing to track
+	}
+
+	@Override
+	public void findPairs(AABBSnapshot bounds, PairList out){
+		this.bounds = bounds;
+		added_count = 0;
+
+		//bin every Shape into the cells its bounding box touches
+		entry_count = 0;
+		for (int i = 0; i < bounds.getCount(); i++){
+			int id = bounds.getId(i);
+			int cx0 = cell(bounds.min_x[id]), cx1 = cell(bounds.max_x[id]);
+			int cy0 = cell(bounds.min_y[id]), cy1 = cell(bounds.max_y[id]);
+			for (int cx = cx0; cx <= cx1; cx++){
+				for (int cy = cy0; cy <= cy1; cy++){
+					if (entry_count == entries.length){
+						entries = Arrays.copyOf(entries, entries.length * 2);
+					}
+					entries[entry_count++] = ((long)cellKey(cx, cy) << 32) | id;
+				}
+			}
+		}
+
+		//group entries by cell
+		sortByCell();
+
+		//test every pair within each cell
+		int run_start = 0;
+		while (run_start < entry_count){
+			int key = (int)(entries[run_start] >>> 32);
+			int run_end = run_start + 1;
+			while (run_end < entry_count && (int)(entries[run_end] >>> 32) == key){
+				run_end++;
+			}
+
+			for (int i = run_start; i < run_end; i++){
+				int a = (int)entries[i];
+				for (int j = i + 1; j < run_end; j++){
+					int b = (int)entries[j];
+					if (bounds.canCollide(a, b) && bounds.overlaps(a, b) && ownsPair(key, a, b)){
+						out.add(a, b);
+					}
+				}
+			}
+
+			run_start = run_end;
+		}
+
+	}
+
+	@Override
+	public void query(AABBSnapshot bounds, float min_x, float min_y, float max_x, float max_y, QueryCallback callback){
+		if (query_marks.length < bounds.getCapacity()){
+			query_marks = new int[bounds.getCapacity()];
+		}
+		if (++query_stamp == 0){
+			Arrays.fill(query_marks, 0);
+			query_stamp = 1;
+		}
+
+		int cx0 = cell(min_x), cx1 = cell(max_x);
+		int cy0 = cell(min_y), cy1 = cell(max_y);
+		if ((long)(cx1 - cx0 + 1) * (cy1 - cy0 + 1) > entry_count){
+			//more cells than entries; cheaper to check every entry
+			for (int i = 0; i < entry_count; i++){
+				if (!reportIfOverlapping(bounds, (int)entries[i], min_x, min_y, max_x, max_y, callback)){
+					return;
+				}
+			}
+		} else {
+			for (int cx = cx0; cx <= cx1; cx++){
+				for (int cy = cy0; cy <= cy1; cy++){
+					int key = cellKey(cx, cy);
+					for (int i = firstEntry(key); i < entry_count && (int)(entries[i] >>> 32) == key; i++){
+						if (!reportIfOverlapping(bounds, (int)entries[i], min_x, min_y, max_x, max_y, callback)){
+							return;
+						}
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < added_count; i++){
+			if (!reportIfOverlapping(bounds, added_ids[i], min_x, min_y, max_x, max_y, callback)){
+				return;
+			}
+		}
+	}
+
+	//---------------
+	//--| Helpers |--
+	//---------------
+
+	/** Returns the index of the first entry in cell key, or of where it would be; entries are sorted by unsigned key */
+	private int firstEntry(int key){
+		int lo = 0, hi = entry_count;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (((int)(entries[mid] >>> 32) ^ Integer.MIN_VALUE) < (key ^ Integer.MIN_VALUE)){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Reports id to callback if its box overlaps the query box and it has not been reported yet in this query;
+	 * returns false to stop the query
+	 */
+	private boolean reportIfOverlapping(AABBSnapshot bounds, int id, float min_x, float min_y, float max_x, float max_y, QueryCallback callback){
+		if (   query_marks[id] == query_stamp
+			|| bounds.min_x[id] > max_x || min_x > bounds.max_x[id]
+			|| bounds.min_y[id] > max_y || min_y > bounds.max_y[id]
+			){
+			return true;
+		}
+		query_marks[id] = query_stamp;
+		return callback.report(id);
+	}
+
+	/**
+	 * Sorts entries by cell key (the upper 32 bits) with an LSD radix sort. Unlike Arrays.sort(),
+	 * this never allocates once entries_scratch has grown to fit.
+	 */
+	private void sortByCell(){
+		if (entries_scratch.length < entries.length){
+			entries_scratch = new long[entries.length];
+		}
+
+		long[] src = entries;
+		long[] dst = entries_scratch;
+		for (int shift = 32; shift < 64; shift += 8){
+			Arrays.fill(radix_counts, 0);
+			for (int i = 0; i < entry_count; i++){
+				radix_counts[(int)(src[i] >>> shift) & 0xFF]++;
+			}
+			int total = 0;
+			for (int d = 0; d < 256; d++){
+				int c = radix_counts[d];
+				radix_counts[d] = total;
+				total += c;
+			}
+			for (int i = 0; i < entry_count; i++){
+				dst[radix_counts[(int)(src[i] >>> shift) & 0xFF]++] = src[i];
+			}
+
+			long[] t = src; src = dst; dst = t;
+		}
+
+		//an even number of passes leaves the result back in entries
+		assert src == entries;
+	}
+
+	/** Returns the (unwrapped) cell coordinate containing the input world coordinate */
+	private int cell(float coord){
+		return (int)Math.floor(coord / cell_size);
+	}
+
+	/** Returns a key for cell (cx, cy); coordinates wrap every 65536 cells */
+	private static int cellKey(int cx, int cy){
+		return ((cx & 0xFFFF) << 16) | (cy & 0xFFFF);
+	}
+
+	/**
+	 * A pair sharing several cells is only reported from one of them: the cell containing the
+	 * lower corner of the overlap of their bounding boxes.
+	 */
+	private boolean ownsPair(int key, int a, int b){
+		return key == cellKey(
+			cell( Math.max(bounds.min_x[a], bounds.min_x[b]) ),
+			cell( Math.max(bounds.min_y[a], bounds.min_y[b]) )
+			);
+	}
+
+	/** Returns the size of a grid cell, as passed to the constructor */
+	public float getCellSize(){ return cell_size; }
+
+}
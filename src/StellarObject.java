@@ -43,7 +43,12 @@ public abstract class StellarObject{
 	
 	/** Performs framewise updates; should be propegated from the base Slick2D game object */
 	public void update(GameContainer gc, int time_passed_ms) {
-		phys.update(gc, time_passed_ms);
+		update(time_passed_ms);
+	}
+
+	/** As update(gc, time_passed_ms), without a GameContainer; subclasses override this one (see World.tick()) */
+	public void update(int time_passed_ms) {
+		phys.update(time_passed_ms);
 	}
 
 	/** Performs graphical updates; should be propegated from the base Slick2D game object */
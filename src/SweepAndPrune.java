@@ -0,0 +1,321 @@
+/**
+ * SweepAndPrune.java
+ *
+ * An incremental sweep-and-prune Broadphase: the x and y endpoints of every Shape's bounding box are kept
+ * sorted between frames, and are re-sorted with an insertion sort each frame. Since objects only move a little
+ * from one frame to the next, this is close to linear. Every swap made by the sort tells us that a pair of
+ * bounding boxes either started or stopped overlapping on that axis, so the set of overlapping pairs is
+ * maintained as the sort runs, rather than being rebuilt every frame.
+ *
+ * Overlapping pairs are kept in a PairSet, so once the arrays have grown to fit the scene nothing is
+ * allocated per frame. The set holds every overlapping pair, whether or not the two may collide; canCollide()
+ * is checked as pairs are reported, so a filter or layer change (see CollisionLayer.setLayers()) takes effect at
+ * the next findPairs() even if the boxes already overlapped.
+ *
+ * remove() only marks an id as dead; all of a frame's dead ids are purged from the endpoint lists and
+ * the pair set together, in one pass, at the start of the next findPairs().
+ *
+ * The number of swaps each frame's sort made is reported through Broadphase.SortCounter; a sudden rise means
+ * things are moving further per frame than the incremental sort suits.
+ *
+ * Author: Wesley Gydé
+ */
+
+import java.util.Arrays;
+
+public class SweepAndPrune implements Broadphase, Broadphase.SortCounter{
+
+	//axis identifiers
+	private static final int X = 0;
+	private static final int Y = 1;
+
+	//which_bound values
+	private static final int LOWER = 0;
+	private static final int UPPER = 1;
+
+	//One axis (x or y) of the sweep; holds the sorted lower/upper bounds of every Shape's bounding box
+	private class Axis{
+
+		private int axis;
+
+		//endpoint i belongs to id (tags[i] >> 1), and is an UPPER bound if (tags[i] & 1) == 1
+		private int[] tags;
+		private float[] values;
+		private int count;
+
+		//endpoints [0, sorted_count) are in order; the rest were added since the last sort()
+		private int sorted_count;
+
+		//the widest box on this axis as of the last refresh(), for query()
+		private float max_extent;
+
+		/**
+		 * Constructor
+		 *
+		 * @param axis which axis this sorts (X or Y)
+		 */
+		public Axis(int axis){
+			this.axis = axis;
+			tags = new int[INITIAL_CAPACITY * 2];
+			values = new float[INITIAL_CAPACITY * 2];
+			count = 0;
+			sorted_count = 0;
+			max_extent = 0f;
+		}
+
+		/** Appends both bounds of id; they will be moved into place by the next sort() */
+		public void add(int id){
+			if (count + 2 > tags.length){
+				tags = Arrays.copyOf(tags, tags.length * 2);
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+			tags[count] = (id << 1) | LOWER;
+			values[count++] = getBound(id, axis, LOWER);
+			tags[count] = (id << 1) | UPPER;
+			values[count++] = getBound(id, axis, UPPER);
+		}
+
+		/** Removes the bounds of every dead id, keeping the rest in order */
+		public void purge(){
+			int j = 0;
+			for (int i = 0; i < count; i++){
+				if (!dead[tags[i] >> 1]){
+					tags[j] = tags[i];
+					values[j++] = values[i];
+				}
+			}
+
+			//every id has exactly two bounds per axis
+			assert j == count - 2*dead_count;
+
+			count = j;
+			sorted_count = 0; //the next sort() follows straight after
+		}
+
+		/** Re-reads every bound from the snapshot */
+		public void refresh(){
+			max_extent = 0f;
+			for (int i = 0; i < count; i++){
+				int id = tags[i] >> 1;
+				values[i] = getBound(id, axis, tags[i] & 1);
+				if ((tags[i] & 1) == LOWER){
+					max_extent = Math.max(max_extent, getBound(id, axis, UPPER) - values[i]);
+				}
+			}
+		}
+
+		/**
+		 * Insertion-sorts the bounds. Every time a lower bound moves below an upper bound, the
+		 * two boxes may have started overlapping; every time an upper bound moves below a lower
+		 * bound, the two boxes have stopped overlapping. At equal values lower bounds sort first,
+		 * so boxes which only touch count as overlapping, as they do everywhere else.
+		 *
+		 * @return the number of swaps made
+		 */
+		public int sort(){
+			int swaps = 0;
+			for (int i = 1; i < count; i++){
+				int tag = tags[i];
+				float value = values[i];
+
+				int j = i - 1;
+				while (j >= 0 && (values[j] > value || (values[j] == value && (tags[j] & 1) > (tag & 1)))){
+					int passed = tags[j];
+					if ((tag & 1) == LOWER && (passed & 1) == UPPER){
+						if (overlaps(tag >> 1, passed >> 1)){
+							pairs.add(tag >> 1, passed >> 1);
+						}
+					} else if ((tag & 1) == UPPER && (passed & 1) == LOWER){
+						pairs.remove(tag >> 1, passed >> 1);
+					}
+
+					tags[j + 1] = passed;
+					values[j + 1] = values[j];
+					j--;
+				}
+				swaps += i - 1 - j;
+				tags[j + 1] = tag;
+				values[j + 1] = value;
+			}
+			sorted_count = count;
+			return swaps;
+		}
+
+		/** Returns the index of the first sorted endpoint whose value is at least min */
+		public int lowerBound(float min){
+			int lo = 0, hi = sorted_count;
+			while (lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if (values[mid] < min){
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+	}
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	//bounding boxes, as last passed in by the CollisionLayer
+	private AABBSnapshot bounds;
+
+	//ids removed since the last findPairs(); see purge()
+	private boolean[] dead;
+	private int[] dead_ids;
+	private int dead_count;
+	private long[] pair_scratch;
+
+	private Axis axis_x;
+	private Axis axis_y;
+
+	//pairs of ids whose bounding boxes currently overlap
+	private PairSet pairs;
+
+	//swaps made by the last findPairs()'s sorts
+	private int swap_count;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	public SweepAndPrune(){
+		bounds = null;
+		dead = new boolean[INITIAL_CAPACITY];
+		dead_ids = new int[INITIAL_CAPACITY];
+		dead_count = 0;
+		pair_scratch = new long[INITIAL_CAPACITY];
+
+		axis_x = new Axis(X);
+		axis_y = new Axis(Y);
+		pairs = new PairSet();
+		swap_count = 0;
+	}
+
+	//------------------
+	//--| Broadphase |--
+	//------------------
+
+	@Override
+	public void add(int id, AABBSnapshot bounds){
+		this.bounds = bounds;
+		if (id >= dead.length){
+			dead = Arrays.copyOf(dead, Math.max(dead.length * 2, id + 1));
+		}
+
+		//the CollisionLayer never reuses an id before the next findPairs()
+		assert !dead[id];
+
+		axis_x.add(id);
+		axis_y.add(id);
+	}
+
+	@Override
+	public void remove(int id){
+		if (dead_count == dead_ids.length){
+			dead_ids = Arrays.copyOf(dead_ids, dead_ids.length * 2);
+		}
+		dead[id] = true;
+		dead_ids[dead_count++] = id;
+	}
+
+	@Override
+	public void findPairs(AABBSnapshot bounds, PairList out){
+		this.bounds = bounds;
+		if (dead_count > 0){
+			purge();
+		}
+
+		axis_x.refresh();
+		axis_y.refresh();
+		swap_count = axis_x.sort() + axis_y.sort();
+
+		for (int i = 0; i < pairs.capacity(); i++){
+			long key = pairs.keyAt(i);
+			if (key != PairSet.EMPTY && bounds.canCollide(PairSet.lowerId(key), PairSet.upperId(key))){
+				out.add( PairSet.lowerId(key), PairSet.upperId(key) );
+			}
+		}
+	}
+
+	@Override
+	public int getSwapCount(){
+		return swap_count;
+	}
+
+	@Override
+	public void query(AABBSnapshot bounds, float min_x, float min_y, float max_x, float max_y, QueryCallback callback){
+		Axis axis = axis_x;
+
+		//sorted endpoints: a box overlapping [min_x, max_x] has its lower x bound in [min_x - max_extent, max_x]
+		for (int i = axis.lowerBound(min_x - axis.max_extent); i < axis.sorted_count && axis.values[i] <= max_x; i++){
+			if ((axis.tags[i] & 1) == LOWER && !reportIfOverlapping(bounds, axis.tags[i] >> 1, min_x, min_y, max_x, max_y, callback)){
+				return;
+			}
+		}
+
+		//endpoints added since the last sort
+		for (int i = axis.sorted_count; i < axis.count; i++){
+			if ((axis.tags[i] & 1) == LOWER && !reportIfOverlapping(bounds, axis.tags[i] >> 1, min_x, min_y, max_x, max_y, callback)){
+				return;
+			}
+		}
+	}
+
+	/** Reports id to callback if it is live and its box overlaps the query box; returns false to stop the query */
+	private boolean reportIfOverlapping(AABBSnapshot bounds, int id, float min_x, float min_y, float max_x, float max_y, QueryCallback callback){
+		if (   dead[id]
+			|| bounds.min_x[id] > max_x || min_x > bounds.max_x[id]
+			|| bounds.min_y[id] > max_y || min_y > bounds.max_y[id]
+			){
+			return true;
+		}
+		return callback.report(id);
+	}
+
+	//------------------------
+	//--| Pair Bookkeeping |--
+	//------------------------
+
+	/** Drops every dead id from the endpoint lists, and every pair involving one from the pair set */
+	private void purge(){
+		axis_x.purge();
+		axis_y.purge();
+
+		if (pair_scratch.length < pairs.size()){
+			pair_scratch = new long[pairs.capacity()];
+		}
+		int kept = 0;
+		for (int i = 0; i < pairs.capacity(); i++){
+			long key = pairs.keyAt(i);
+			if (key != PairSet.EMPTY && !dead[PairSet.lowerId(key)] && !dead[PairSet.upperId(key)]){
+				pair_scratch[kept++] = key;
+			}
+		}
+		pairs.clear();
+		for (int i = 0; i < kept; i++){
+			pairs.add( PairSet.lowerId(pair_scratch[i]), PairSet.upperId(pair_scratch[i]) );
+		}
+
+		for (int i = 0; i < dead_count; i++){
+			dead[dead_ids[i]] = false;
+		}
+		dead_count = 0;
+	}
+
+	/** Returns the requested bound of id's box */
+	private float getBound(int id, int axis, int which_bound){
+		if (axis == X){
+			return (which_bound == LOWER) ? bounds.min_x[id] : bounds.max_x[id];
+		}
+		return (which_bound == LOWER) ? bounds.min_y[id] : bounds.max_y[id];
+	}
+
+	/** Returns true if the bounding boxes of a and b overlap on both axes */
+	private boolean overlaps(int a, int b){
+		return bounds.overlaps(a, b);
+	}
+
+}
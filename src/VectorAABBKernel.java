@@ -0,0 +1,67 @@
+/**
+ * VectorAABBKernel.java
+ *
+ * An AABBKernel which tests as many boxes at once as the CPU's widest vector register holds (4, 8 or 16
+ * floats), using the JDK's incubating Vector API. Each step loads one lane of boxes from each of the four
+ * bound arrays, compares them against the query box in four vector compares, and turns the resulting mask into
+ * indices; the last few boxes, fewer than a lane, go through the scalar loop.
+ *
+ * This file needs JDK 16 or later, and the incubator module at compile time and run time:
+ *     javac --add-modules jdk.incubator.vector -cp lib/lwjgl.jar:lib/slick.jar:src src/VectorAABBKernel.java
+ *     java  --add-modules jdk.incubator.vector ...
+ * Nothing refers to it except AABBKernel.create(), by name, so everything else still builds without it.
+ *
+ * Author: Wesley Gydé
+ */
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorAABBKernel extends AABBKernel{
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	//------------------
+	//--| 'structors |--
+	//------------------
+
+	/** Called by AABBKernel.create() */
+	public VectorAABBKernel(){}
+
+	//--------------
+	//--| Kernel |--
+	//--------------
+
+	@Override
+	public int overlapping(
+		float[] min_x, float[] min_y, float[] max_x, float[] max_y, int from, int to,
+		float q_min_x, float q_min_y, float q_max_x, float q_max_y, int[] out
+		){
+		int lanes = SPECIES.length();
+		int n = 0;
+		int i = from;
+		for (int vector_end = from + SPECIES.loopBound(to - from); i < vector_end; i += lanes){
+			VectorMask<Float> hit = FloatVector.fromArray(SPECIES, min_x, i).compare(VectorOperators.LE, q_max_x)
+				.and( FloatVector.fromArray(SPECIES, max_x, i).compare(VectorOperators.GE, q_min_x) )
+				.and( FloatVector.fromArray(SPECIES, min_y, i).compare(VectorOperators.LE, q_max_y) )
+				.and( FloatVector.fromArray(SPECIES, max_y, i).compare(VectorOperators.GE, q_min_y) );
+
+			//one bit per lane; usually none are set
+			long bits = hit.toLong();
+			while (bits != 0L){
+				out[n++] = i + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1L;
+			}
+		}
+		return overlappingScalar(min_x, min_y, max_x, max_y, i, to, q_min_x, q_min_y, q_max_x, q_max_y, out, n);
+	}
+
+	@Override
+	public String getName(){ return "vector"; }
+
+	@Override
+	public int getLanes(){ return SPECIES.length(); }
+
+}
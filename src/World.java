@@ -7,6 +7,7 @@
  * Functionalities include:
  *    - graphical representation
  *    - game state containment
+ *    - a fixed-timestep simulation, drawn between ticks
  * 
  * Author:       Erik Steringer
  * Last Updated: 2014-Nov-9 by Erik Steringer
@@ -23,40 +24,140 @@ public class World {
 	/// Fields
 	private PlayerShip mainShip;
 	private CollisionLayer cl;
+	private PhysicsWorld physics;   // every object's physical state, integrated once per tick
+	private ContactEvents contacts; // refilled by cl every tick
+	private CollisionStats stats;   // cl's last frame, for the debug display
 	private DebrisManager debris;
 	private AIManager aiships;
 	
+	private float tickMs;           // simulated time per tick
+	private int maxTicksPerFrame;   // catch-up cap; beyond it, time is dropped rather than spiralling
+	private float pendingMs;        // real time not yet simulated
+	private float carryMs;          // simulated time not yet handed to tick(), which takes whole ms; always under 1ms
+	
 	private static boolean DEBUG_DISP = false;
 	
+	// simulation rate by default; 30 suits weak hosts, and more gives finer collisions
+	private static final float DEFAULT_TICK_RATE = 60f;
+	private static final int DEFAULT_MAX_TICKS_PER_FRAME = 5;
+	
+	// cell size for the default broadphase; a little larger than an asteroid (radius 20)
+	private static final float GRID_CELL_SIZE = 64f;
+	
 	/// Constructors
+	/**
+	 * Creates a World whose collisions are found with a uniform grid, which suits
+	 * our roughly uniform asteroid fields
+	 */
 	public World() {
-		this.cl       = new CollisionLayer();
-		this.debris   = new DebrisManager(cl);
-		this.mainShip = PlayerShip.makeShip(0f, 0f, cl);
-		this.aiships  = new AIManager(cl, mainShip);		
+		this(new SpatialHashGrid(GRID_CELL_SIZE));
+	}
+	
+	/**
+	 * Creates a World whose collisions are found by the input broadphase
+	 */
+	public World(Broadphase broadphase) {
+		this.cl       = new CollisionLayer(broadphase);
+		this.physics  = new PhysicsWorld();
+		this.contacts = new ContactEvents();
+		this.stats    = new CollisionStats();
+		this.debris   = new DebrisManager(cl, physics);
+		this.mainShip = PlayerShip.makeShip(0f, 0f, cl, physics);
+		this.aiships  = new AIManager(cl, mainShip, physics);		
 		mainShip.getPhys().getCImg().addTo(cl);	
+		this.pendingMs = 0f;
+		this.carryMs = 0f;
+		this.maxTicksPerFrame = DEFAULT_MAX_TICKS_PER_FRAME;
+		setTickRate(DEFAULT_TICK_RATE);
 	}
 	
 	/// Methods
 	/**
-	 * Updates our game's state
+	 * Updates our game's state: runs as many fixed ticks as the real time passed calls for,
+	 * several per frame if frames are long, up to maxTicksPerFrame
 	 * Throws a SlickException
 	 */
 	public void update(GameContainer gc, int i) throws SlickException {
-		mainShip.update(gc, i);
-		debris.update(gc, i, mainShip.getPhys().getPosition(), mainShip.getPhys().getVelAngle());
-		aiships.update(gc, i, mainShip.getPhys().getPosition());
-		cl.notifyCollisions();
+		update(gc.getInput(), i);
 		
-		if (gc.getInput().isKeyPressed(Input.KEY_D)) {
+		if (gc.getInput().isKeyPressed(Input.KEY_ESCAPE)) {
+			gc.exit();
+		}
+	}
+	
+	/**
+	 * As update(gc, i), reading the keys from in; only quitting needs the GameContainer,
+	 * so this drives the game without one (see main())
+	 * Throws a SlickException
+	 */
+	public void update(Input in, int i) throws SlickException {
+		pendingMs += i;
+		int ticks = 0;
+		while (pendingMs >= tickMs && ticks < maxTicksPerFrame) {
+			carryMs += tickMs;
+			int ms = (int) carryMs; // e.g. 16, 17, 17 at 60Hz: whole ms which add up to the time simulated
+			carryMs -= ms;
+			tick(in, ms);
+			pendingMs -= tickMs;
+			ticks++;
+		}
+		if (pendingMs >= tickMs) {
+			pendingMs %= tickMs; // too far behind to catch up; slow down instead
+		}
+		
+		if (in.isKeyPressed(Input.KEY_D)) {
 			DEBUG_DISP = !DEBUG_DISP;
+			cl.setRecordingStats(DEBUG_DISP); // costs nothing while the display is off
 		}
+	}
+	
+	/**
+	 * Advances the simulation by one tick of tickMs
+	 * Throws a SlickException
+	 */
+	private void tick(Input in, int ms) throws SlickException {
+		mainShip.update(in, ms);
+		float x = mainShip.getPhys().getX(), y = mainShip.getPhys().getY();
+		debris.update(ms, x, y, mainShip.getPhys().getVelAngle());
+		aiships.update(ms, x, y);
 		
-		if (gc.getInput().isKeyPressed(Input.KEY_ESCAPE)) {
-			gc.exit();
+		// every object has steered; now move them all at once
+		physics.integrate();
+		
+		// collide once per touch, rather than every frame two objects overlap
+		contacts.clear();
+		cl.notifyContacts(contacts);
+		for (int k = 0; k < contacts.size(); k++) {
+			if (contacts.getPhase(k) == ContactEvents.BEGIN)
+				contacts.dispatch(k);
 		}
 	}
 	
+	/**
+	 * Sets how many times per second the simulation ticks, whatever the frame rate
+	 * Throws an IllegalArgumentException if hz is not positive
+	 */
+	public void setTickRate(float hz) {
+		if (!(hz > 0f))
+			throw new IllegalArgumentException("tick rate must be positive: " + hz);
+		tickMs = 1000f / hz;
+		physics.setTickLength(tickMs);
+	}
+	
+	public float getTickRate() { return 1000f / tickMs; }
+	
+	/**
+	 * Sets how many ticks one update() may run to catch up after a long frame
+	 * Throws an IllegalArgumentException if max is less than 1
+	 */
+	public void setMaxTicksPerFrame(int max) {
+		if (max < 1)
+			throw new IllegalArgumentException("max ticks per frame must be at least 1: " + max);
+		maxTicksPerFrame = max;
+	}
+	
+	public int getMaxTicksPerFrame() { return maxTicksPerFrame; }
+	
 	public int shipHP() { return mainShip.getHP(); }
 	
 	/**
@@ -64,6 +165,9 @@ public class World {
 	 * Throws a SlickException
 	 */
 	public void render(GameContainer gc, Graphics g) throws SlickException { 
+		// draw everything between the last two ticks, as far along as real time has got
+		physics.interpolate(pendingMs / tickMs);
+		
 		float midx = mainShip.getPhys().getGImg().getMidX();
 		float midy = mainShip.getPhys().getGImg().getMidY();
 		g.translate(-midx + 320f, -midy + 240f);
@@ -84,6 +188,55 @@ public class World {
 			g.drawString("Asteroids: " + debris.count(), 10, 420);
 			g.drawString("AI Ships:  " + aiships.count(), 10, 440);
 			g.drawString("FPS: " + gc.getFPS(), 570, 460);
+			
+			// collision statistics
+			cl.getStats(stats);
+			g.drawString("Shapes: " + stats.shapes + " (" + stats.static_shapes + " static), swaps: " + stats.sort_swaps, 10, 320);
+			g.drawString("Pairs: " + stats.candidate_pairs + ", cached: " + stats.cached_pairs, 10, 340);
+			g.drawString("Tests: " + stats.narrowphase_tests + ", contacts: " + stats.contacts, 10, 360);
+			g.drawString("Collide us: " + stats.update_ns/1000 + " + " + stats.broadphase_ns/1000 + " + " + stats.narrowphase_ns/1000, 10, 380);
+		}
+	}
+	
+	/// Test/Debug Methods
+	/**
+	 * Sandbox driver: runs a World headless, with no keys pressed, and measures the heap each update()
+	 * allocates once warmed up (the second half of the run), counting only updates in which nothing
+	 * spawned or was destroyed; a steady-state update should allocate nothing at all, so any
+	 * that does makes this exit with status 1.
+	 * Run with -XX:-BackgroundCompilation: otherwise the JIT swapping in new code mid-run can
+	 * charge a few bytes to an update which allocates nothing itself.
+	 */
+	public static void main(String[] args) throws SlickException {
+		int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		
+		final Input keys = new Input(480) {
+			@Override
+			public boolean isKeyDown(int code) { return false; }
+			@Override
+			public boolean isKeyPressed(int code) { return false; }
+		};
+		
+		World world = new World();
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		int steady = 0, allocating = 0;
+		long worst = 0;
+		for (int k = 0; k < updates; k++) {
+			long changes = world.physics.getChangeCount();
+			long before = threads.getCurrentThreadAllocatedBytes();
+			world.update(keys, 17);
+			long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+			if (k >= updates / 2 && world.physics.getChangeCount() == changes) {
+				steady++;
+				if (bytes > 0)
+					allocating++;
+				worst = Math.max(worst, bytes);
+			}
 		}
+		System.out.println(steady + " steady updates: " + allocating + " allocated (at most " + worst + " bytes)"
+			+ "; " + world.debris.count() + " asteroids, " + world.aiships.count() + " AI ships");
+		if (allocating > 0)
+			System.exit(1);
 	}
 }
\ No newline at end of file